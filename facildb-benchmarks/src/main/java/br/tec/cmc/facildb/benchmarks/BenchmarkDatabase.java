@@ -0,0 +1,104 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.benchmarks;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import br.tec.cmc.facildb.FacilDB;
+
+/**
+ * In-memory H2 databases used by the benchmarks. Each database lives until
+ * the JVM of the fork ends.
+ */
+final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    static FacilDB open(String name) throws SQLException {
+        return new FacilDB("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    /**
+     * Column names of a table with the given width: id, then text, integer
+     * and timestamp columns in turn.
+     */
+    static String[] columns(int width) {
+        String[] columns = new String[width];
+        columns[0] = "id";
+        for (int c = 1; c < width; c++) {
+            columns[c] = "c" + c;
+        }
+        return columns;
+    }
+
+    /**
+     * Creates the table, dropping it first, and inserts the rows.
+     */
+    static void createTable(FacilDB db, String table, int width, int rows) throws SQLException {
+        db.sql("drop table if exists " + table).execute();
+        StringBuilder sql = new StringBuilder();
+        sql.append("create table ").append(table).append(" (id bigint not null");
+        for (int c = 1; c < width; c++) {
+            sql.append(", c").append(c).append(' ').append(columnType(c));
+        }
+        sql.append(", primary key (id))");
+        db.sql(sql.toString()).execute();
+
+        String[] columns = columns(width);
+        db.insert(table).fields(columns).batchSize(1000).executeBatch(records(columns, 0, rows));
+    }
+
+    static List<JSONObject> records(String[] columns, long firstId, int rows) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<JSONObject> records = new ArrayList<>(rows);
+        for (int r = 0; r < rows; r++) {
+            JSONObject record = new JSONObject();
+            record.put(columns[0], firstId + r);
+            for (int c = 1; c < columns.length; c++) {
+                switch (c % 3) {
+                    case 1:
+                        record.put(columns[c], "value " + r + " of column " + c);
+                        break;
+                    case 2:
+                        record.put(columns[c], r * c);
+                        break;
+                    default:
+                        record.put(columns[c], now);
+                }
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static String columnType(int column) {
+        switch (column % 3) {
+            case 1:
+                return "varchar(80)";
+            case 2:
+                return "integer";
+            default:
+                return "timestamp";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.benchmarks;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.tec.cmc.facildb.util.DateUtil;
+
+/**
+ * Date formatting and parsing of DateUtil, as used for every date column
+ * of a select.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateUtilBenchmark {
+
+    private final Date date = new Date(1600000000123L);
+    private final TimeZone zone = TimeZone.getDefault();
+    private final char[] buffer = new char[DateUtil.DATE_HOUR_MILISECONDS_LENGTH];
+    private final String text = DateUtil.dateToString(date, DateUtil.PATTERN_DATE_HOUR_MILISECONDS);
+
+    @Benchmark
+    public char[] formatToBuffer() {
+        DateUtil.formatDateHourMiliseconds(date.getTime(), zone, buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public String dateToString() {
+        return DateUtil.dateToString(date, DateUtil.PATTERN_DATE_HOUR_MILISECONDS);
+    }
+
+    @Benchmark
+    public String dateToStringDateOnly() {
+        return DateUtil.dateToString(date, DateUtil.PATTERN_DATE_ONLY);
+    }
+
+    @Benchmark
+    public String dateToIso8601() {
+        return DateUtil.dateToIso8601(date);
+    }
+
+    @Benchmark
+    public Date stringToDate() throws ParseException {
+        return DateUtil.stringToDate(text);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.benchmarks;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.tec.cmc.facildb.FacilDB;
+
+/**
+ * Insert throughput of executeBatch() and bulkLoad(), in rows per second.
+ * The table is emptied before each iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteBatchBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"8"})
+    public int columns;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private FacilDB db;
+    private String[] fields;
+    private List<JSONObject> records;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        db = BenchmarkDatabase.open("execute_batch");
+        fields = BenchmarkDatabase.columns(columns);
+        records = BenchmarkDatabase.records(fields, 0, ROWS);
+    }
+
+    @Setup(Level.Iteration)
+    public void createTable() throws SQLException {
+        BenchmarkDatabase.createTable(db, "batch", columns, 0);
+        db.sql("alter table batch drop primary key").execute();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        db.closeConnection();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long executeBatch() throws SQLException {
+        return db.insert("batch").fields(fields).batchSize(batchSize).executeBatch(records.iterator(), chunk -> {});
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long bulkLoad() throws SQLException {
+        return db.batchSize(batchSize).bulkLoad("batch", String.join(",", fields), records);
+    }
+}
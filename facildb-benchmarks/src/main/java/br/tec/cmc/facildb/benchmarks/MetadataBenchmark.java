@@ -0,0 +1,79 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.benchmarks;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.tec.cmc.facildb.FacilDB;
+import br.tec.cmc.facildb.metadata.MetadataCache;
+import br.tec.cmc.facildb.metadata.MetadataDB;
+import br.tec.cmc.facildb.metadata.Table;
+
+/**
+ * MetadataDB.getTable() reading the catalog every time and with a
+ * MetadataCache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+
+    private FacilDB db;
+    private MetadataDB uncached;
+    private MetadataDB cached;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        db = BenchmarkDatabase.open("metadata");
+        BenchmarkDatabase.createTable(db, "wide", 16, 0);
+        DatabaseMetaData dmd = db.getConnection().getMetaData();
+        uncached = new MetadataDB(dmd);
+        cached = new MetadataDB(dmd, new MetadataCache());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        db.closeConnection();
+    }
+
+    @Benchmark
+    public Table getTable() throws SQLException {
+        return uncached.getTable("", "PUBLIC", "WIDE");
+    }
+
+    @Benchmark
+    public Table getTableCached() throws SQLException {
+        return cached.getTable("", "PUBLIC", "WIDE");
+    }
+}
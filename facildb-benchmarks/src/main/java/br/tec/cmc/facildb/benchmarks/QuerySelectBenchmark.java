@@ -0,0 +1,89 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.tec.cmc.facildb.ColumnarResult;
+import br.tec.cmc.facildb.FacilDB;
+
+/**
+ * Row mapping of querySelect() and of the other select paths, for tables
+ * of several widths and row counts. Run with -prof gc to see the bytes
+ * allocated per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuerySelectBenchmark {
+
+    @Param({"4", "16", "64"})
+    public int columns;
+
+    @Param({"10", "1000", "10000"})
+    public int rows;
+
+    private FacilDB db;
+    private String[] fields;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        db = BenchmarkDatabase.open("query_select");
+        BenchmarkDatabase.createTable(db, "wide", columns, rows);
+        fields = BenchmarkDatabase.columns(columns);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        db.closeConnection();
+    }
+
+    @Benchmark
+    public JSONArray query() throws SQLException {
+        return db.select(fields).from("wide").query();
+    }
+
+    @Benchmark
+    public long queryTo() throws SQLException, IOException {
+        return db.select(fields).from("wide").queryTo(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public ColumnarResult queryColumnar() throws SQLException {
+        return db.select(fields).from("wide").queryColumnar();
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.benchmarks;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.tec.cmc.facildb.DataBaseType;
+import br.tec.cmc.facildb.FacilDB;
+import br.tec.cmc.facildb.Query;
+
+/**
+ * SQL generation of a select: FacilDB.getSelect() runs prepareSelect(),
+ * and Query.compile() builds the text of a new Query every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectSqlBenchmark {
+
+    private FacilDB db;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        db = BenchmarkDatabase.open("select_sql");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        db.closeConnection();
+    }
+
+    @Benchmark
+    public String prepareSelect() throws SQLException {
+        return db.select("bk.id, bk.title, bk.author, bk.isbn, pb.pub_name")
+                 .from("book bk join publisher pb on bk.publisher_id = pb.id")
+                 .where("bk.publisher_id=?")
+                 .orderBy("bk.title")
+                 .maxResults(50)
+                 .getSelect();
+    }
+
+    @Benchmark
+    public String compileQuery() throws SQLException {
+        return Query.select("bk.id, bk.title, bk.author, bk.isbn, pb.pub_name")
+                    .from("book bk join publisher pb on bk.publisher_id = pb.id")
+                    .where("bk.publisher_id=?")
+                    .orderBy("bk.title")
+                    .maxResults(50)
+                    .compile(DataBaseType.H2);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor of the async queries and of the parallel metadata
+ * reads.
+ *
+ * On JDK 21+ each task runs on a virtual thread. On older JDKs a bounded
+ * pool of daemon platform threads is used. The pom targets release 11, so
+ * the virtual thread executor is looked up by reflection.
+ */
+public final class AsyncExecutor {
+
+    private static volatile ExecutorService defaultExecutor;
+
+    private AsyncExecutor() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static ExecutorService getDefault() {
+        ExecutorService executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (AsyncExecutor.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = create();
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static ExecutorService create() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+            return Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "facildb-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import br.tec.cmc.facildb.util.StringUtil;
+
+/**
+ * Maps rows to records or POJOs.
+ *
+ * Columns are matched to the record components, setters or fields by the
+ * name StringUtil.varNameToCamelCase() gives the column label, so
+ * PUBLISHER_ID fills publisherId. Columns without a match are ignored.
+ *
+ * The constructor, setter and field handles are looked up once per class
+ * and the column matching is done once per ResultSet, so the row loop
+ * only reads the cells by index and calls the handles. A mapper binds to
+ * the ResultSet it reads, so an instance must not be shared by threads.
+ *
+ * The pom targets release 11, so records are detected by reflection.
+ */
+public final class BeanRowMapper<T> implements RowMapper<T> {
+
+    private static final ClassValue<Target> TARGETS = new ClassValue<Target>() {
+        @Override
+        protected Target computeValue(Class<?> type) {
+            return Target.of(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final Target target;
+    private ResultSet bound;
+    private int[] indexes;
+    private int[] slots;
+    private CellReader[] readers;
+
+    public BeanRowMapper(Class<T> type) {
+        this.type = type;
+        this.target = TARGETS.get(type);
+        if (target.failure != null) {
+            throw target.failure;
+        }
+    }
+
+    @Override
+    public T map(ResultSet rs) throws SQLException {
+        if (rs != bound) {
+            bind(rs);
+        }
+        try {
+            if (target.record) {
+                Object[] args = target.defaults.clone();
+                for (int i = 0; i < indexes.length; i++) {
+                    Object value = readers[i].read(rs, indexes[i]);
+                    if (value != null) {
+                        args[slots[i]] = value;
+                    }
+                }
+                return type.cast(target.constructor.invokeExact(args));
+            }
+            Object bean = target.constructor.invokeExact();
+            for (int i = 0; i < indexes.length; i++) {
+                Object value = readers[i].read(rs, indexes[i]);
+                if (value != null || !target.types[slots[i]].isPrimitive()) {
+                    target.setters[slots[i]].invokeExact(bean, value);
+                }
+            }
+            return type.cast(bean);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SQLException("Erro ao criar " + type.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void bind(ResultSet rs) throws SQLException {
+        ResultSetMetaData md = rs.getMetaData();
+        int count = md.getColumnCount();
+        List<Integer> columns = new ArrayList<>();
+        List<Integer> properties = new ArrayList<>();
+        boolean[] used = new boolean[target.names.length];
+        for (int c = 1; c <= count; c++) {
+            int slot = target.slot(md.getColumnLabel(c));
+            if (slot >= 0 && !used[slot]) {
+                used[slot] = true;
+                columns.add(c);
+                properties.add(slot);
+            }
+        }
+        indexes = new int[columns.size()];
+        slots = new int[columns.size()];
+        readers = new CellReader[columns.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = columns.get(i);
+            slots[i] = properties.get(i);
+            readers[i] = reader(target.types[slots[i]]);
+        }
+        bound = rs;
+    }
+
+    private static CellReader reader(Class<?> type) {
+        if (type == String.class) {
+            return ResultSet::getString;
+        } else if (type == int.class || type == Integer.class) {
+            return (rs, i) -> {
+                int v = rs.getInt(i);
+                return rs.wasNull() ? null : v;
+            };
+        } else if (type == long.class || type == Long.class) {
+            return (rs, i) -> {
+                long v = rs.getLong(i);
+                return rs.wasNull() ? null : v;
+            };
+        } else if (type == double.class || type == Double.class) {
+            return (rs, i) -> {
+                double v = rs.getDouble(i);
+                return rs.wasNull() ? null : v;
+            };
+        } else if (type == float.class || type == Float.class) {
+            return (rs, i) -> {
+                float v = rs.getFloat(i);
+                return rs.wasNull() ? null : v;
+            };
+        } else if (type == short.class || type == Short.class) {
+            return (rs, i) -> {
+                short v = rs.getShort(i);
+                return rs.wasNull() ? null : v;
+            };
+        } else if (type == byte.class || type == Byte.class) {
+            return (rs, i) -> {
+                byte v = rs.getByte(i);
+                return rs.wasNull() ? null : v;
+            };
+        } else if (type == boolean.class || type == Boolean.class) {
+            return (rs, i) -> {
+                boolean v = rs.getBoolean(i);
+                return rs.wasNull() ? null : v;
+            };
+        } else if (type == BigDecimal.class) {
+            return ResultSet::getBigDecimal;
+        } else if (type == byte[].class) {
+            return ResultSet::getBytes;
+        } else if (type == java.sql.Date.class) {
+            return ResultSet::getDate;
+        } else if (type == Timestamp.class || type == java.util.Date.class) {
+            return ResultSet::getTimestamp;
+        } else if (type == LocalDate.class) {
+            return (rs, i) -> {
+                java.sql.Date v = rs.getDate(i);
+                return v == null ? null : v.toLocalDate();
+            };
+        } else if (type == LocalDateTime.class) {
+            return (rs, i) -> {
+                Timestamp v = rs.getTimestamp(i);
+                return v == null ? null : v.toLocalDateTime();
+            };
+        } else if (type == Instant.class) {
+            return (rs, i) -> {
+                Timestamp v = rs.getTimestamp(i);
+                return v == null ? null : v.toInstant();
+            };
+        }
+        return (rs, i) -> {
+            Object v = rs.getObject(i);
+            if (v == null || type.isInstance(v)) {
+                return v;
+            }
+            return rs.getObject(i, type);
+        };
+    }
+
+    @FunctionalInterface
+    private interface CellReader {
+        Object read(ResultSet rs, int index) throws SQLException;
+    }
+
+    /**
+     * Handles and property names of a class, shared by all its mappers.
+     */
+    private static final class Target {
+        private boolean record;
+        private String[] names;
+        private Class<?>[] types;
+        private Object[] defaults;
+        private MethodHandle constructor;
+        private MethodHandle[] setters;
+        private final Map<String, Integer> byName = new HashMap<>();
+        private IllegalArgumentException failure;
+
+        static Target of(Class<?> type) {
+            Target target = new Target();
+            try {
+                Object[] components = recordComponents(type);
+                if (components != null) {
+                    target.initRecord(type, components);
+                } else {
+                    target.initBean(type);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                target.failure = new IllegalArgumentException(
+                    "Classe nao pode ser mapeada: " + type.getName() + ": " + e.getMessage(), e);
+            }
+            return target;
+        }
+
+        int slot(String label) {
+            int p = label.lastIndexOf('.');
+            if (p >= 0) {
+                label = label.substring(p + 1);
+            }
+            Integer slot = null;
+            if (!label.isEmpty() && !label.contains("__") && !label.startsWith("_")) {
+                slot = byName.get(StringUtil.varNameToCamelCase(label));
+            }
+            if (slot == null) {
+                slot = byName.get(label.replace("_", "").toLowerCase(Locale.ROOT));
+            }
+            return slot == null ? -1 : slot;
+        }
+
+        private void initRecord(Class<?> type, Object[] components) throws ReflectiveOperationException {
+            record = true;
+            names = new String[components.length];
+            types = new Class<?>[components.length];
+            defaults = new Object[components.length];
+            for (int i = 0; i < components.length; i++) {
+                Class<?> componentClass = components[i].getClass();
+                names[i] = (String) componentClass.getMethod("getName").invoke(components[i]);
+                types[i] = (Class<?>) componentClass.getMethod("getType").invoke(components[i]);
+                if (types[i].isPrimitive()) {
+                    defaults[i] = Array.get(Array.newInstance(types[i], 1), 0);
+                }
+                index(names[i], i);
+            }
+            Constructor<?> ctor = type.getDeclaredConstructor(types);
+            ctor.setAccessible(true);
+            constructor = MethodHandles.lookup().unreflectConstructor(ctor)
+                                       .asSpreader(Object[].class, components.length)
+                                       .asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        private void initBean(Class<?> type) throws ReflectiveOperationException {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Constructor<?> ctor = type.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+
+            Map<String, MethodHandle> handles = new HashMap<>();
+            Map<String, Class<?>> handleTypes = new HashMap<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field: c.getDeclaredFields()) {
+                    int mod = field.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isFinal(mod) || handles.containsKey(field.getName())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    handles.put(field.getName(), lookup.unreflectSetter(field));
+                    handleTypes.put(field.getName(), field.getType());
+                }
+            }
+            // Setters publicos tem preferencia sobre os campos
+            for (Method method: type.getMethods()) {
+                String name = method.getName();
+                if (name.length() > 3 && name.startsWith("set") && method.getParameterCount() == 1 &&
+                    !Modifier.isStatic(method.getModifiers())) {
+                    String property = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+                    handles.put(property, lookup.unreflect(method));
+                    handleTypes.put(property, method.getParameterTypes()[0]);
+                }
+            }
+            names = handles.keySet().toArray(new String[0]);
+            types = new Class<?>[names.length];
+            setters = new MethodHandle[names.length];
+            for (int i = 0; i < names.length; i++) {
+                types[i] = handleTypes.get(names[i]);
+                setters[i] = handles.get(names[i])
+                                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                index(names[i], i);
+            }
+        }
+
+        private void index(String name, int slot) {
+            byName.put(name, slot);
+            if (name.equals("clazz")) {
+                byName.put("class", slot);
+            }
+            byName.putIfAbsent(name.toLowerCase(Locale.ROOT), slot);
+        }
+
+        private static Object[] recordComponents(Class<?> type) throws ReflectiveOperationException {
+            Method isRecord;
+            try {
+                isRecord = Class.class.getMethod("isRecord");
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+            if (!((Boolean) isRecord.invoke(type))) {
+                return null;
+            }
+            return (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+import org.json.JSONObject;
+
+import br.tec.cmc.facildb.util.CopyText;
+
+/**
+ * Fast insert paths used by FacilDB.bulkLoad().
+ *
+ * PostgreSQL loads with COPY FROM STDIN through the driver CopyManager,
+ * found by reflection so the driver is not a compile dependency. MySQL,
+ * H2 and SQL Server load with multi-row "insert ... values (...),(...)"
+ * statements. Records with values COPY cannot write, as a JSONObject,
+ * go through the multi-row inserts too.
+ */
+final class BulkLoader {
+
+    private static final String PG_CONNECTION = "org.postgresql.PGConnection";
+
+    private BulkLoader() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Largest number of bind parameters in one statement for the database.
+     */
+    static int maxParams(DataBaseType dbType) {
+        if (dbType == DataBaseType.MSSQL || dbType == DataBaseType.MSSQL_JTDS) {
+            return 2000;
+        }
+        if (dbType == DataBaseType.MYSQL || dbType == DataBaseType.POSTGRESQL) {
+            return 30000;
+        }
+        return 10000;
+    }
+
+    /**
+     * True when COPY writes all fields of the record as JDBC would bind
+     * them.
+     */
+    static boolean copyable(JSONObject record, String[] fields) throws SQLException {
+        for (String field: fields) {
+            if (!CopyText.supports(value(record, field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The first record, already read, followed by the rest.
+     */
+    static Iterator<JSONObject> prepend(JSONObject first, Iterator<JSONObject> rest) {
+        return new Iterator<JSONObject>() {
+            private boolean pending = true;
+
+            @Override
+            public boolean hasNext() {
+                return pending || rest.hasNext();
+            }
+
+            @Override
+            public JSONObject next() {
+                if (pending) {
+                    pending = false;
+                    return first;
+                }
+                return rest.next();
+            }
+        };
+    }
+
+    static boolean supportsCopy(Connection conn) {
+        try {
+            Class<?> pgClass = Class.forName(PG_CONNECTION);
+            return conn.isWrapperFor(pgClass);
+        } catch (ClassNotFoundException | SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Loads the records with PostgreSQL COPY. The COPY text is produced
+     * while the driver reads it, so the records are never all in memory.
+     */
+    static long copy(Connection conn, String table, String[] fields, Iterator<JSONObject> source) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        sql.append("copy ").append(table).append(" (");
+        appendFields(sql, fields);
+        sql.append(") from stdin");
+        try {
+            Object pgConn = conn.unwrap(Class.forName(PG_CONNECTION));
+            Object copyApi = pgConn.getClass().getMethod("getCopyAPI").invoke(pgConn);
+            Method copyIn = copyApi.getClass().getMethod("copyIn", String.class, Reader.class);
+            Object rows = copyIn.invoke(copyApi, sql.toString(), new CopyReader(fields, source));
+            return ((Number) rows).longValue();
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("COPY nao suportado pelo driver: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads the records with multi-row inserts of up to rowsPerStatement
+     * rows each.
+     */
+    static long multiRowInsert(FacilDB db, String table, String[] fields, Iterator<JSONObject> source,
+                               int rowsPerStatement) throws SQLException {
+        int rows = Math.max(1, rowsPerStatement);
+        Object[] values = new Object[rows * fields.length];
+        String fullSql = insertSql(table, fields, rows);
+        long total = 0;
+        int pending = 0;
+        while (source.hasNext()) {
+            JSONObject record = source.next();
+            int base = pending * fields.length;
+            for (int i = 0; i < fields.length; i++) {
+                values[base + i] = value(record, fields[i]);
+            }
+            if (++pending == rows) {
+                execute(db, fullSql, values, values.length);
+                total += pending;
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            execute(db, insertSql(table, fields, pending), values, pending * fields.length);
+            total += pending;
+        }
+        return total;
+    }
+
+    static Object value(JSONObject record, String field) throws SQLException {
+        try {
+            Object value = record.get(field);
+            return value == JSONObject.NULL ? null : value;
+        } catch (Exception e) {
+            throw new SQLException(e.getMessage() + "\r\n" + record.toString());
+        }
+    }
+
+    private static void execute(FacilDB db, String sql, Object[] values, int count) throws SQLException {
+        PreparedStatement ps = db.prepareStatement(sql);
+        try {
+            for (int i = 0; i < count; i++) {
+                ParamBuffer.bind(ps, i + 1, values[i]);
+            }
+            ps.executeUpdate();
+        } finally {
+            db.releaseStatement(ps);
+        }
+    }
+
+    private static String insertSql(String table, String[] fields, int rows) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("insert into ").append(table).append(" (");
+        appendFields(sql, fields);
+        sql.append(") values ");
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            row.append(i == 0 ? "?" : ",?");
+        }
+        row.append(")");
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) {
+                sql.append(",");
+            }
+            sql.append(row);
+        }
+        return sql.toString();
+    }
+
+    private static void appendFields(StringBuilder sql, String[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i];
+            int p = field.indexOf(".");
+            if (p > 0) {
+                field = field.substring(p+1);
+            }
+            if (i > 0) {
+                sql.append(",");
+            }
+            sql.append(field);
+        }
+    }
+
+    /**
+     * Reader that renders the records in the COPY text format, one line at
+     * a time.
+     */
+    private static final class CopyReader extends Reader {
+
+        private final String[] fields;
+        private final Iterator<JSONObject> source;
+        private final StringBuilder line = new StringBuilder();
+        private int pos;
+
+        CopyReader(String[] fields, Iterator<JSONObject> source) {
+            this.fields = fields;
+            this.source = source;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (pos >= line.length()) {
+                if (!source.hasNext()) {
+                    return -1;
+                }
+                nextLine(source.next());
+            }
+            int n = Math.min(len, line.length() - pos);
+            line.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // Nada a fechar
+        }
+
+        private void nextLine(JSONObject record) throws IOException {
+            line.setLength(0);
+            pos = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    line.append('\t');
+                }
+                Object value;
+                try {
+                    value = value(record, fields[i]);
+                } catch (SQLException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                try {
+                    CopyText.append(line, value);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            line.append('\n');
+        }
+    }
+}
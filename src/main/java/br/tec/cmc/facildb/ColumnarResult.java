@@ -0,0 +1,421 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a select stored by column, for reports and aggregations over
+ * many rows.
+ *
+ * Each column is kept in one primitive array chosen from its JDBC type:
+ * integers in int[] or long[], decimals in double[] (integral decimals of
+ * up to 18 digits in long[]), dates and timestamps
+ * as epoch milliseconds in long[], booleans in a BitSet. Strings are
+ * dictionary encoded: an int[] of codes plus the list of distinct values.
+ * Nulls are marked in a BitSet per column. Other types are kept as
+ * objects.
+ *
+ * Columns and rows are indexed from 0. The arrays returned by getInts(),
+ * getLongs(), getDoubles() and getCodes() are the internal ones, sized to
+ * the row count, and must not be changed.
+ */
+public final class ColumnarResult {
+
+    public enum ColumnType {
+        INT, LONG, DOUBLE, BOOLEAN, STRING, TIMESTAMP, OBJECT
+    }
+
+    private static final int INITIAL_ROWS = 1024;
+
+    private final String[] names;
+    private final Column[] columns;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private int rows;
+
+    private ColumnarResult(String[] names, ColumnType[] types) {
+        this.names = names;
+        this.columns = new Column[names.length];
+        for (int c = 0; c < names.length; c++) {
+            columns[c] = new Column(types[c]);
+            indexes.putIfAbsent(names[c].toLowerCase(), c);
+        }
+    }
+
+    /**
+     * Reads all the remaining rows of the ResultSet. The ResultSet is not
+     * closed.
+     */
+    public static ColumnarResult from(ResultSet rs) throws SQLException {
+        ResultSetMetaData md = rs.getMetaData();
+        int count = md.getColumnCount();
+        String[] names = new String[count];
+        ColumnType[] types = new ColumnType[count];
+        for (int c = 0; c < count; c++) {
+            names[c] = md.getColumnLabel(c + 1);
+            types[c] = columnType(md.getColumnType(c + 1), md.getPrecision(c + 1), md.getScale(c + 1));
+        }
+        ColumnarResult result = new ColumnarResult(names, types);
+        while (rs.next()) {
+            result.addRow(rs);
+        }
+        result.trim();
+        return result;
+    }
+
+    static ColumnType columnType(int sqlType, int precision, int scale) {
+        switch (sqlType) {
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return ColumnType.INT;
+            case Types.BIGINT:
+                return ColumnType.LONG;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return scale == 0 && precision > 0 && precision <= 18 ? ColumnType.LONG : ColumnType.DOUBLE;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+                return ColumnType.DOUBLE;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return ColumnType.BOOLEAN;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+            case Types.NCLOB:
+                return ColumnType.STRING;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+            case Types.TIME_WITH_TIMEZONE:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return ColumnType.TIMESTAMP;
+            default:
+                return ColumnType.OBJECT;
+        }
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    /**
+     * Index of the column with the label, ignoring case, or -1.
+     */
+    public int getColumnIndex(String name) {
+        Integer index = indexes.get(name.toLowerCase());
+        return index == null ? -1 : index;
+    }
+
+    public ColumnType getColumnType(int column) {
+        return columns[column].type;
+    }
+
+    public boolean isNull(int column, int row) {
+        return columns[column].nulls.get(row);
+    }
+
+    public int getInt(int column, int row) {
+        Column col = columns[column];
+        switch (col.type) {
+            case INT:
+                return col.ints[row];
+            case LONG:
+            case TIMESTAMP:
+                return (int) col.longs[row];
+            case DOUBLE:
+                return (int) col.doubles[row];
+            default:
+                return ((Number) getObject(column, row)).intValue();
+        }
+    }
+
+    public long getLong(int column, int row) {
+        Column col = columns[column];
+        switch (col.type) {
+            case INT:
+                return col.ints[row];
+            case LONG:
+            case TIMESTAMP:
+                return col.longs[row];
+            case DOUBLE:
+                return (long) col.doubles[row];
+            default:
+                return ((Number) getObject(column, row)).longValue();
+        }
+    }
+
+    public double getDouble(int column, int row) {
+        Column col = columns[column];
+        switch (col.type) {
+            case INT:
+                return col.ints[row];
+            case LONG:
+            case TIMESTAMP:
+                return col.longs[row];
+            case DOUBLE:
+                return col.doubles[row];
+            default:
+                return ((Number) getObject(column, row)).doubleValue();
+        }
+    }
+
+    public boolean getBoolean(int column, int row) {
+        Column col = columns[column];
+        if (col.type == ColumnType.BOOLEAN) {
+            return col.bools.get(row);
+        }
+        return getLong(column, row) != 0;
+    }
+
+    public String getString(int column, int row) {
+        Column col = columns[column];
+        if (col.nulls.get(row)) {
+            return null;
+        }
+        if (col.type == ColumnType.STRING) {
+            return col.dictionary.get(col.codes[row]);
+        }
+        return String.valueOf(getObject(column, row));
+    }
+
+    /**
+     * Value of the cell boxed as the JDBC driver would return it, with
+     * dates and timestamps as java.sql.Timestamp.
+     */
+    public Object getObject(int column, int row) {
+        Column col = columns[column];
+        if (col.nulls.get(row)) {
+            return null;
+        }
+        switch (col.type) {
+            case INT:
+                return col.ints[row];
+            case LONG:
+                return col.longs[row];
+            case DOUBLE:
+                return col.doubles[row];
+            case BOOLEAN:
+                return col.bools.get(row);
+            case STRING:
+                return col.dictionary.get(col.codes[row]);
+            case TIMESTAMP:
+                return new Timestamp(col.longs[row]);
+            default:
+                return col.objects[row];
+        }
+    }
+
+    public int[] getInts(int column) {
+        return check(column, ColumnType.INT).ints;
+    }
+
+    /**
+     * Values of a LONG column, or the epoch milliseconds of a TIMESTAMP
+     * column.
+     */
+    public long[] getLongs(int column) {
+        Column col = columns[column];
+        if (col.type != ColumnType.TIMESTAMP) {
+            check(column, ColumnType.LONG);
+        }
+        return col.longs;
+    }
+
+    public double[] getDoubles(int column) {
+        return check(column, ColumnType.DOUBLE).doubles;
+    }
+
+    /**
+     * Dictionary codes of a STRING column, indexes into getDictionary().
+     */
+    public int[] getCodes(int column) {
+        return check(column, ColumnType.STRING).codes;
+    }
+
+    public List<String> getDictionary(int column) {
+        return Collections.unmodifiableList(check(column, ColumnType.STRING).dictionary);
+    }
+
+    /**
+     * Null bitmap of the column: bit row is set when the cell is null.
+     */
+    public BitSet getNulls(int column) {
+        return (BitSet) columns[column].nulls.clone();
+    }
+
+    private Column check(int column, ColumnType type) {
+        Column col = columns[column];
+        if (col.type != type) {
+            throw new IllegalArgumentException("Coluna " + names[column] + " e do tipo " + col.type + ", nao " + type);
+        }
+        return col;
+    }
+
+    private void addRow(ResultSet rs) throws SQLException {
+        for (int c = 0; c < columns.length; c++) {
+            columns[c].read(rs, c + 1, rows);
+        }
+        rows++;
+    }
+
+    private void trim() {
+        for (Column col: columns) {
+            col.trim(rows);
+        }
+    }
+
+    private static final class Column {
+        private final ColumnType type;
+        private final BitSet nulls = new BitSet();
+        private int[] ints;
+        private long[] longs;
+        private double[] doubles;
+        private int[] codes;
+        private BitSet bools;
+        private Object[] objects;
+        private List<String> dictionary;
+        private Map<String, Integer> codeOf;
+
+        Column(ColumnType type) {
+            this.type = type;
+            switch (type) {
+                case INT:
+                    ints = new int[INITIAL_ROWS];
+                    break;
+                case LONG:
+                case TIMESTAMP:
+                    longs = new long[INITIAL_ROWS];
+                    break;
+                case DOUBLE:
+                    doubles = new double[INITIAL_ROWS];
+                    break;
+                case BOOLEAN:
+                    bools = new BitSet();
+                    break;
+                case STRING:
+                    codes = new int[INITIAL_ROWS];
+                    dictionary = new ArrayList<>();
+                    codeOf = new HashMap<>();
+                    break;
+                default:
+                    objects = new Object[INITIAL_ROWS];
+            }
+        }
+
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            switch (type) {
+                case INT:
+                    if (row == ints.length) {
+                        ints = Arrays.copyOf(ints, row * 2);
+                    }
+                    ints[row] = rs.getInt(index);
+                    break;
+                case LONG:
+                    if (row == longs.length) {
+                        longs = Arrays.copyOf(longs, row * 2);
+                    }
+                    longs[row] = rs.getLong(index);
+                    break;
+                case DOUBLE:
+                    if (row == doubles.length) {
+                        doubles = Arrays.copyOf(doubles, row * 2);
+                    }
+                    doubles[row] = rs.getDouble(index);
+                    break;
+                case BOOLEAN:
+                    if (rs.getBoolean(index)) {
+                        bools.set(row);
+                    }
+                    break;
+                case STRING:
+                    if (row == codes.length) {
+                        codes = Arrays.copyOf(codes, row * 2);
+                    }
+                    String text = rs.getString(index);
+                    if (text != null) {
+                        Integer code = codeOf.get(text);
+                        if (code == null) {
+                            code = dictionary.size();
+                            dictionary.add(text);
+                            codeOf.put(text, code);
+                        }
+                        codes[row] = code;
+                    }
+                    break;
+                case TIMESTAMP:
+                    if (row == longs.length) {
+                        longs = Arrays.copyOf(longs, row * 2);
+                    }
+                    Timestamp ts = rs.getTimestamp(index);
+                    longs[row] = ts == null ? 0 : ts.getTime();
+                    break;
+                default:
+                    if (row == objects.length) {
+                        objects = Arrays.copyOf(objects, row * 2);
+                    }
+                    objects[row] = rs.getObject(index);
+            }
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        void trim(int rows) {
+            if (ints != null) {
+                ints = Arrays.copyOf(ints, rows);
+            }
+            if (longs != null) {
+                longs = Arrays.copyOf(longs, rows);
+            }
+            if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, rows);
+            }
+            if (codes != null) {
+                codes = Arrays.copyOf(codes, rows);
+            }
+            if (objects != null) {
+                objects = Arrays.copyOf(objects, rows);
+            }
+            codeOf = null;
+        }
+    }
+}
@@ -54,4 +54,34 @@ public enum DataBaseType {
                 return POSTGRESQL;
         }
     }
+
+    /**
+     * Database type of a JDBC URI, or null when it is not known.
+     */
+    public static DataBaseType fromUri(String uri) {
+        if (uri == null) {
+            return null;
+        }
+        String url = uri.toLowerCase();
+        if (url.startsWith("jdbc:h2:")) {
+            return H2;
+        } else if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+            return MYSQL;
+        } else if (url.startsWith("jdbc:oracle:")) {
+            return ORACLE;
+        } else if (url.startsWith("jdbc:firebirdsql:") || url.startsWith("jdbc:firebird:")) {
+            return FIREBIRD;
+        } else if (url.startsWith("jdbc:postgresql:")) {
+            return POSTGRESQL;
+        } else if (url.startsWith("jdbc:sqlserver:")) {
+            return MSSQL;
+        } else if (url.startsWith("jdbc:jtds:sqlserver:")) {
+            return MSSQL_JTDS;
+        } else if (url.startsWith("jdbc:datadirect:openedge:")) {
+            return PROGRESS;
+        } else if (url.startsWith("jdbc:pervasive:")) {
+            return PERVASIVE_PSQL;
+        }
+        return null;
+    }
 }
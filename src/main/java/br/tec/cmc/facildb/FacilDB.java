@@ -15,21 +15,40 @@
  */
 package br.tec.cmc.facildb;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import br.tec.cmc.facildb.dialect.Dialect;
 import br.tec.cmc.facildb.util.DataType;
-import br.tec.cmc.facildb.util.DateUtil;
+import br.tec.cmc.facildb.util.DateMode;
 
 /**
  * FacilDB
@@ -40,8 +59,9 @@ import br.tec.cmc.facildb.util.DateUtil;
 public class FacilDB {
 
     private Connection conn;
+    private FacilDataSource dataSource;
     private String uri;
-    private List<Object> queryParams;
+    private final ParamBuffer queryParams = new ParamBuffer();
     private String[] fieldsSEL;
     private String[] sqlAliases;
     private String[] fieldsINS;
@@ -54,6 +74,16 @@ public class FacilDB {
     private String orderBy = "";
     private String tableNames = "";
     private int maxResults;
+    private int offset;
+    private int fetchSize;
+    private int maxRows;
+    private int queryTimeout;
+    private int defaultFetchSize;
+    private int defaultMaxRows;
+    private int defaultQueryTimeout;
+    private int batchSize = 1000;
+    private String[] batchKeys;
+    private DateMode dateMode = DateMode.TEXT;
     private StringBuilder sqlSEL;
     private StringBuilder sqlINS;
     private StringBuilder sqlUPD;
@@ -65,6 +95,7 @@ public class FacilDB {
     private PreparedStatement prepStatDEL;
     private PreparedStatement prepStatCRE;
     private CallableStatement callableStatement;
+    private StatementCache statementCache;
     private String schema;
     private boolean available;
     private String databaseId;
@@ -72,6 +103,12 @@ public class FacilDB {
     protected DataBaseType dbType;
     protected String procedure;
 
+    private static final List<DDLListener> DDL_LISTENERS = new CopyOnWriteArrayList<>();
+    private static final List<QueryListener> QUERY_LISTENERS = new CopyOnWriteArrayList<>();
+    private static final Logger LOGGER = Logger.getLogger(FacilDB.class.getName());
+    private final List<QueryListener> queryListeners = new CopyOnWriteArrayList<>();
+    private static final Pattern DDL_PATTERN = Pattern.compile("\\s*(create|alter|drop|truncate)\\s");
+
     private static final String NO_DATA_AVAILABLE = "No data available";
     private static final String TABLE_NAME_NOT_INFORMED = "Table name nto informed";
 
@@ -82,27 +119,93 @@ public class FacilDB {
     public FacilDB(String uri, String username, String password) throws SQLException {
         setConnection(uri, username, password);
     }
+
+    public FacilDB(FacilDataSource dataSource) throws SQLException {
+        setConnection(dataSource);
+    }
     
     protected void setConnection(String uri, String username, String password) throws SQLException {
         this.uri = uri;
+        if (this.dbType == null) {
+            this.dbType = DataBaseType.fromUri(uri);
+        }
+        if (FacilDataSource.isPoolingEnabled()) {
+            setConnection(FacilDataSource.sharedPool(uri, username, password, dbType));
+            return;
+        }
         DriverManager.setLoginTimeout(15);
+        dropStatementCache();
         conn = DriverManager.getConnection(uri, username, password);
-        this.queryParams = new ArrayList<>();
+        this.queryParams.clear();
     }
     
+    /**
+     * Uses the connection. The statements cached for the previous
+     * connection are closed.
+     */
     public void setConnection(Connection conn) {
+        dropStatementCache();
         this.conn = conn;
-        this.queryParams = new ArrayList<>();
+        if (this.dbType == null) {
+            try {
+                this.dbType = DataBaseType.fromUri(conn.getMetaData().getURL());
+            } catch (SQLException e) {
+                // Tipo de banco continua desconhecido
+            }
+        }
+        this.queryParams.clear();
+    }
+
+    /**
+     * Borrows a connection from the pool. The connection goes back to the
+     * pool on closeConnection().
+     */
+    public void setConnection(FacilDataSource dataSource) throws SQLException {
+        dropStatementCache();
+        this.dataSource = dataSource;
+        this.uri = dataSource.getUri();
+        if (this.dbType == null) {
+            this.dbType = dataSource.getDbType();
+        }
+        this.conn = dataSource.getConnection();
+        this.queryParams.clear();
     }
 
     public Connection getConnection() {
         return conn;
     }
    
+    /**
+     * Returns the prepared statement cache of the current connection. Pooled
+     * connections share the cache kept by the FacilDataSource.
+     */
+    public StatementCache getStatementCache() {
+        if (statementCache == null && conn != null) {
+            if (dataSource != null) {
+                statementCache = dataSource.statementCache(conn);
+            } else {
+                statementCache = new StatementCache(conn);
+            }
+        }
+        return statementCache;
+    }
+
+    public void setStatementCacheSize(int size) {
+        getStatementCache().setMaxSize(size);
+    }
+
+    public FacilDataSource getDataSource() {
+        return dataSource;
+    }
+   
     public String getUri() {
         return uri;
     }
 
+    public DataBaseType getDbType() {
+        return dbType;
+    }
+
     public String getDatabaseId() {
         return databaseId;
     }
@@ -113,48 +216,115 @@ public class FacilDB {
         
     public void closeConnection() throws SQLException {
         if (conn != null) {
-            conn.close(); 
+            resetInternalVariables();
+            if (dataSource != null) {
+                dataSource.release(conn);
+                conn = null;
+            } else {
+                if (statementCache != null) {
+                    statementCache.close();
+                }
+                conn.close(); 
+            }
+            statementCache = null;
         }
     }
     
-    public boolean connectionIsValid() throws SQLException {
-        boolean resp = false;
-        if (conn != null) {
-            if (dbType == DataBaseType.MSSQL_JTDS) {
-                // JTDS nao suporta o isValid()
-                resp = true;
-            } else {
-                resp = conn.isValid(10);
-            }
+    /**
+     * Forgets the statement cache of the current connection, closing it
+     * unless it belongs to the pool, which keeps it with the connection.
+     */
+    private void dropStatementCache() {
+        if (statementCache != null && dataSource == null) {
+            statementCache.close();
+        }
+        statementCache = null;
+    }
+
+    /**
+     * Closes the cached statements after a DDL: on PostgreSQL a statement
+     * prepared before an alter table fails with "cached plan must not
+     * change result type". A pool clears the caches of all its connections.
+     */
+    private void clearStatementCaches() {
+        if (dataSource != null) {
+            dataSource.clearStatementCaches();
+        } else if (statementCache != null) {
+            statementCache.close();
         }
-        return resp;
+    }
+
+    public boolean connectionIsValid() throws SQLException {
+        return FacilDataSource.isValid(conn, dbType, 10);
     }
 
     public String getLastSQL() {
         return lastSQL;
     }
 
+    /**
+     * Registers a listener called after every DDL statement executed by any
+     * FacilDB, e.g. to invalidate a MetadataCache.
+     */
+    public static void addDDLListener(DDLListener listener) {
+        DDL_LISTENERS.add(listener);
+    }
+
+    public static void removeDDLListener(DDLListener listener) {
+        DDL_LISTENERS.remove(listener);
+    }
+
+    /**
+     * Registers a listener called after every statement executed by any
+     * FacilDB, with its timings and row count. See SlowQueryLog.
+     */
+    public static void addGlobalQueryListener(QueryListener listener) {
+        QUERY_LISTENERS.add(listener);
+    }
+
+    public static void removeGlobalQueryListener(QueryListener listener) {
+        QUERY_LISTENERS.remove(listener);
+    }
+
+    /**
+     * Registers a listener called after every statement executed by this
+     * FacilDB.
+     */
+    public FacilDB addQueryListener(QueryListener listener) {
+        queryListeners.add(listener);
+        return this;
+    }
+
+    public void removeQueryListener(QueryListener listener) {
+        queryListeners.remove(listener);
+    }
+
     public FacilDB sql(String sqls) throws SQLException {
         String sqlsl = sqls.toLowerCase();
-        if (sqlsl.indexOf("select") >= 0) {
+        if (isDDL(sqlsl)) {
+            this.operation = SQLCommand.CREATE;
+            this.sqlCRE = new StringBuilder(sqls);
+            if (prepStatCRE != null) prepStatCRE.close();
+            prepStatCRE = null;
+        } else if (sqlsl.indexOf("select") >= 0) {
             this.operation = SQLCommand.SELECT;
             this.sqlSEL = new StringBuilder(sqls);
-            if (prepStatSEL != null) prepStatSEL.close();
+            releaseStatement(prepStatSEL);
             prepStatSEL = null;
         } else if (sqlsl.indexOf("insert") >= 0) {
             this.operation = SQLCommand.INSERT;
             this.sqlINS = new StringBuilder(sqls);
-            if (prepStatINS!= null) prepStatINS.close();
+            releaseStatement(prepStatINS);
             prepStatINS = null;
         } else if (sqlsl.indexOf("update") >= 0) {
             this.operation = SQLCommand.UPDATE;
             this.sqlUPD = new StringBuilder(sqls);
-            if (prepStatUPD != null) prepStatUPD.close();
+            releaseStatement(prepStatUPD);
             prepStatUPD = null;
         } else if (sqlsl.indexOf("delete") >= 0) {
             this.operation = SQLCommand.DELETE;
             this.sqlDEL = new StringBuilder(sqls);
-            if (prepStatDEL != null) prepStatDEL.close();
+            releaseStatement(prepStatDEL);
             prepStatDEL = null;
         } else if (sqlsl.indexOf("create") >= 0) {
             this.operation = SQLCommand.CREATE;
@@ -165,15 +335,27 @@ public class FacilDB {
         
         this.sqlAliases = null;
         this.whereSEL = null;
-        this.queryParams = new ArrayList<>();
+        this.queryParams.clear();
         lastSQL = sqls;
         return this;
     }
     
+    /**
+     * Calls a stored procedure. The CallableStatement comes from the
+     * StatementCache, so repeated calls of the same procedure reuse it.
+     * A statement with out parameters registered by outParam() is closed
+     * after the call instead of cached.
+     */
     public FacilDB call(String procedure) throws SQLException {
         this.operation = SQLCommand.PROCEDURE;
         this.procedure = procedure;
-        callableStatement = conn.prepareCall("{call " + procedure + "}");
+        this.sqlAliases = null;
+        if (callableStatement != null) {
+            CallableStatement previous = callableStatement;
+            callableStatement = null;
+            releaseStatement(previous);
+        }
+        callableStatement = prepareCall("{call " + procedure + "}");
         return this;
     }
     
@@ -182,20 +364,7 @@ public class FacilDB {
     }
     
     public FacilDB param(int index, Object value) {
-        int tam = this.queryParams.size();
-        if (index < tam) {
-            if (tam > 0) {
-                this.queryParams.remove(index);
-            }
-            this.queryParams.add(index, value);
-        } else if (index == tam) {
-            this.queryParams.add(value);
-        } else {
-            for (int i=tam; i<index; i++) {
-                this.queryParams.add(null);
-            }
-            this.queryParams.add(value);
-        }
+        this.queryParams.set(index, value);
         return this;
     }
     
@@ -203,6 +372,70 @@ public class FacilDB {
         this.queryParams.add(value);
         return this;
     }
+
+    /**
+     * Adds a parameter converted to the type and bound with its setter. A
+     * null value is bound with setNull() and the SQL type. A value of a
+     * class the type does not accept throws IllegalArgumentException.
+     */
+    public FacilDB paramTyped(Object value, DataType type) {
+        this.queryParams.add(value, type);
+        return this;
+    }
+
+    /**
+     * Typed parameters, kept unboxed and bound with setInt(), setLong(),
+     * and so on.
+     */
+    public FacilDB paramInt(int value) {
+        this.queryParams.addInt(value);
+        return this;
+    }
+
+    public FacilDB paramLong(long value) {
+        this.queryParams.addLong(value);
+        return this;
+    }
+
+    public FacilDB paramDouble(double value) {
+        this.queryParams.addDouble(value);
+        return this;
+    }
+
+    public FacilDB paramBoolean(boolean value) {
+        this.queryParams.addBoolean(value);
+        return this;
+    }
+
+    public FacilDB paramString(String value) {
+        this.queryParams.addString(value);
+        return this;
+    }
+
+    public FacilDB paramDecimal(BigDecimal value) {
+        this.queryParams.addDecimal(value);
+        return this;
+    }
+
+    public FacilDB paramBytes(byte[] value) {
+        this.queryParams.addBytes(value);
+        return this;
+    }
+
+    public FacilDB paramTimestamp(long epochMillis) {
+        this.queryParams.addTimestamp(epochMillis);
+        return this;
+    }
+
+    public FacilDB paramTimestamp(Date value) {
+        this.queryParams.add(value, DataType.TIMESTAMP);
+        return this;
+    }
+
+    public FacilDB paramDate(Date value) {
+        this.queryParams.add(value, DataType.DATE);
+        return this;
+    }
     
     public FacilDB outParam(Integer index, DataType type) throws SQLException {
         return outParam(index, type, null);
@@ -210,43 +443,13 @@ public class FacilDB {
     
     public FacilDB outParam(Integer index, DataType type, Object value) throws SQLException {
         if (this.callableStatement != null) {
-            int sqlType = java.sql.Types.VARCHAR;
-            switch (type) {
-                case BOOLEAN:
-                    sqlType = java.sql.Types.BOOLEAN;
-                    break;
-                case CLOB:
-                    sqlType = java.sql.Types.CLOB;
-                    break;
-                case DATE:
-                    sqlType = java.sql.Types.DATE;
-                    break;
-                case DECIMAL:
-                    sqlType = java.sql.Types.DOUBLE;
-                    break;
-                case INTEGER:
-                    sqlType = java.sql.Types.INTEGER;
-                    break;
-                case LONG:
-                    sqlType = java.sql.Types.BIGINT;
-                    break;
-                case BIT:
-                    sqlType = java.sql.Types.BIT;
-                    break;
-                case CHAR:
-                    sqlType = java.sql.Types.CHAR;
-                    break;
-                case FLOAT:
-                    sqlType = java.sql.Types.FLOAT;
-                    break;
-                case TIME:
-                    sqlType = java.sql.Types.TIME;
-                    break;
-                case TIMESTAMP:
-                    sqlType = java.sql.Types.TIMESTAMP;
-                    break;
+            int sqlType = ParamBuffer.sqlType(type);
+            StatementCache cache = getStatementCache();
+            if (cache != null) {
+                cache.registerOutParameter(this.callableStatement, index+1, sqlType);
+            } else {
+                this.callableStatement.registerOutParameter(index+1, sqlType);
             }
-            this.callableStatement.registerOutParameter(index+1, sqlType);
             param(index, value);
         }
         return this;
@@ -309,7 +512,7 @@ public class FacilDB {
     }
     
     public void resetInternalVariables() {
-        this.queryParams = new ArrayList<Object>();
+        this.queryParams.clear();
         this.fieldsSEL = null;
         this.sqlAliases = null;
         this.fieldsINS = null;
@@ -322,25 +525,29 @@ public class FacilDB {
         this.orderBy = "";
         this.tableNames = "";
         this.maxResults = 0;
+        this.offset = 0;
+        this.fetchSize = 0;
+        this.maxRows = 0;
+        this.queryTimeout = 0;
         this.sqlSEL = new StringBuilder();
         this.sqlINS = new StringBuilder();
         this.sqlUPD = new StringBuilder();
         this.sqlDEL = new StringBuilder();
         this.sqlCRE = new StringBuilder();
         if (this.prepStatSEL != null) {
-            try { prepStatSEL.close(); } catch (Exception ee) {;}
+            try { releaseStatement(prepStatSEL); } catch (Exception ee) {;}
             this.prepStatSEL = null;
         }
         if (this.prepStatINS != null) {
-            try { prepStatINS.close(); } catch (Exception ee) {;}
+            try { releaseStatement(prepStatINS); } catch (Exception ee) {;}
             this.prepStatINS = null;
         }
         if (this.prepStatUPD != null) {
-            try { prepStatUPD.close(); } catch (Exception ee) {;}
+            try { releaseStatement(prepStatUPD); } catch (Exception ee) {;}
             this.prepStatUPD = null;
         }
         if (this.prepStatDEL != null) {
-            try { prepStatDEL.close(); } catch (Exception ee) {;}
+            try { releaseStatement(prepStatDEL); } catch (Exception ee) {;}
             this.prepStatDEL = null;
         }
         if (this.prepStatCRE != null) {
@@ -348,7 +555,7 @@ public class FacilDB {
             this.prepStatCRE = null;
         }
         if (this.callableStatement != null) {
-            try { callableStatement.close(); } catch (Exception ee) {;}
+            try { releaseStatement(callableStatement); } catch (Exception ee) {;}
             this.callableStatement = null;
         }
     }
@@ -382,19 +589,11 @@ public class FacilDB {
     
     @Deprecated
     public FacilDB setFields(String sFields) {
-        String[] fields = sFields.split(",");
-        for (int i=0; i<fields.length; i++) {
-            fields[i] = fields[i].trim();
-        }
-        return setFields(fields);
+        return setFields(SQLBuilder.split(sFields));
     }
     
     public FacilDB sqlAlias(String aliases) {
-        String[] als = aliases.split(",");
-        for (int i=0; i<als.length; i++) {
-            als[i] = als[i].trim();
-        }
-        return sqlAlias(als);
+        return sqlAlias(SQLBuilder.split(aliases));
     }
     
     public FacilDB sqlAlias(String[] aliases) {
@@ -408,21 +607,20 @@ public class FacilDB {
     }
     
     public FacilDB select(String fields) throws SQLException {
-        String[] flds = fields.split(",");
-        for (int i=0; i<flds.length; i++) {
-            flds[i] = flds[i].trim();
-        }
-        return select(flds);
+        return select(SQLBuilder.split(fields));
     }
     
     public FacilDB select(String[] fields) throws SQLException {
         this.operation = SQLCommand.SELECT;
         this.sqlSEL = new StringBuilder();
-        if (prepStatSEL != null) prepStatSEL.close();
+        releaseStatement(prepStatSEL);
         prepStatSEL = null;
         this.fieldsSEL = fields;
         this.sqlAliases = null;
         this.whereSEL = null;
+        this.orderBy = "";
+        this.maxResults = 0;
+        this.offset = 0;
         return this;
     }
     
@@ -431,10 +629,103 @@ public class FacilDB {
         return this;
     }
     
+    /**
+     * Rows skipped before the first row returned, generated in the syntax
+     * of the database. Prefer page() for deep pages.
+     */
+    public FacilDB offset(int offset) {
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Number of rows the driver fetches per round trip for the next query.
+     * Without it the instance default is used, and then the default of the
+     * Dialect.
+     */
+    public FacilDB fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Most rows the driver returns for the next query (Statement.setMaxRows),
+     * on top of the maxResults() of the SQL.
+     */
+    public FacilDB maxRows(int maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * Seconds the next query may run before it is canceled.
+     */
+    public FacilDB queryTimeout(int seconds) {
+        this.queryTimeout = seconds;
+        return this;
+    }
+
+    public int getDefaultFetchSize() {
+        return defaultFetchSize;
+    }
+
+    /**
+     * Fetch size of every query of this instance that does not set one.
+     */
+    public void setDefaultFetchSize(int defaultFetchSize) {
+        this.defaultFetchSize = defaultFetchSize;
+    }
+
+    public int getDefaultMaxRows() {
+        return defaultMaxRows;
+    }
+
+    public void setDefaultMaxRows(int defaultMaxRows) {
+        this.defaultMaxRows = defaultMaxRows;
+    }
+
+    public int getDefaultQueryTimeout() {
+        return defaultQueryTimeout;
+    }
+
+    public void setDefaultQueryTimeout(int seconds) {
+        this.defaultQueryTimeout = seconds;
+    }
+    
+    /**
+     * Number of records sent to the database per executeBatch() round trip.
+     */
+    public FacilDB batchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+        return this;
+    }
+
+    /**
+     * How date and timestamp columns are put in the records of the next
+     * queries of this instance. TEXT by default.
+     */
+    public FacilDB dateMode(DateMode dateMode) {
+        this.dateMode = dateMode == null ? DateMode.TEXT : dateMode;
+        return this;
+    }
+
+    public DateMode getDateMode() {
+        return dateMode;
+    }
+
+    /**
+     * Record fields bound to the where placeholders of a batch update or
+     * delete, in order.
+     */
+    public FacilDB keys(String keys) {
+        this.batchKeys = SQLBuilder.split(keys);
+        return this;
+    }
+    
     public FacilDB insert(String tableName) throws SQLException {
         this.operation = SQLCommand.INSERT;
         this.sqlINS = new StringBuilder();
-        if (prepStatINS != null) prepStatINS.close();
+        releaseStatement(prepStatINS);
         prepStatINS = null;
         this.tableNames = tableName;
         return this;
@@ -443,20 +734,22 @@ public class FacilDB {
     public FacilDB update(String tableName) throws SQLException {
         this.operation = SQLCommand.UPDATE;
         this.sqlUPD = new StringBuilder();
-        if (prepStatUPD != null) prepStatUPD.close();
+        releaseStatement(prepStatUPD);
         prepStatUPD = null;
         this.tableNames = tableName;
         this.whereUPD = null;
+        this.batchKeys = null;
         return this;
     }
     
     public FacilDB delete(String tableName) throws SQLException {
         this.operation = SQLCommand.DELETE;
         this.sqlDEL = new StringBuilder();
-        if (prepStatDEL != null) prepStatDEL.close();
+        releaseStatement(prepStatDEL);
         prepStatDEL = null;
         this.tableNames = tableName;
         this.whereDEL = null;
+        this.batchKeys = null;
         return this;
     }
     
@@ -507,114 +800,375 @@ public class FacilDB {
     
     public void execute() throws SQLException {
         
-        int i = 1;
+        QueryTrace trace = QueryTrace.INACTIVE;
         try {
             switch (this.operation) {
                 case INSERT:
                     if (this.sqlINS.length() == 0) {
                         prepareInsert();
                     }
+                    trace = trace(SQLCommand.INSERT, this.sqlINS.toString());
                     if (prepStatINS == null) {
-                        prepStatINS = conn.prepareStatement(this.sqlINS.toString());
-                    }
-                    for (Object value: this.queryParams) {
-                        prepStatINS.setObject(i++, value);
+                        prepStatINS = prepareStatement(this.sqlINS.toString());
                     }
-                    prepStatINS.executeUpdate();
+                    trace.prepared();
+                    this.queryParams.bind(prepStatINS);
+                    trace.updated(prepStatINS.executeUpdate());
                     break;
                 case UPDATE:    
                     if (this.sqlUPD.length() == 0) {
                         prepareUpdate();
                     }
+                    trace = trace(SQLCommand.UPDATE, this.sqlUPD.toString());
                     if (prepStatUPD == null) {
-                        prepStatUPD = conn.prepareStatement(this.sqlUPD.toString());
+                        prepStatUPD = prepareStatement(this.sqlUPD.toString());
                     }
-                    for (Object value: this.queryParams) {
-                        prepStatUPD.setObject(i++, value);
-                    }
-                    prepStatUPD.executeUpdate();
+                    trace.prepared();
+                    this.queryParams.bind(prepStatUPD);
+                    trace.updated(prepStatUPD.executeUpdate());
                     break;
                 case DELETE:
                     if (this.sqlDEL.length() == 0) {
                         prepareDelete();
                     }
+                    trace = trace(SQLCommand.DELETE, this.sqlDEL.toString());
                     if (prepStatDEL == null) {
-                        prepStatDEL = conn.prepareStatement(this.sqlDEL.toString());
-                    }
-                    for (Object value: this.queryParams) {
-                        prepStatDEL.setObject(i++, value);
+                        prepStatDEL = prepareStatement(this.sqlDEL.toString());
                     }
-                    prepStatDEL.executeUpdate();
+                    trace.prepared();
+                    this.queryParams.bind(prepStatDEL);
+                    trace.updated(prepStatDEL.executeUpdate());
                     break;
                 case CREATE:
+                    trace = trace(SQLCommand.CREATE, this.sqlCRE.toString());
                     if (prepStatCRE == null) {
                         prepStatCRE = conn.prepareStatement(this.sqlCRE.toString());
                     }
+                    trace.prepared();
                     prepStatCRE.execute();
+                    trace.updated(0);
+                    clearStatementCaches();
+                    for (DDLListener listener: DDL_LISTENERS) {
+                        listener.onDDL(this.sqlCRE.toString());
+                    }
                     break;
                 case PROCEDURE:
-                    for (Object value: this.queryParams) {
-                        this.callableStatement.setObject(i++, value);
-                    }
+                    trace = trace(SQLCommand.PROCEDURE, "{call " + procedure + "}");
+                    trace.prepared();
+                    this.queryParams.bind(callableStatement);
                     this.callableStatement.execute();
+                    trace.updated(Math.max(0, this.callableStatement.getUpdateCount()));
                     break;
             }
+        } catch (SQLException e) {
+            trace.failed(e);
+            throw e;
         } finally {
-            this.queryParams = new ArrayList<>();
+            trace.finish();
+            this.queryParams.clear();
             if (prepStatINS != null) {
-                prepStatINS.close();
+                releaseStatement(prepStatINS);
                 prepStatINS = null;
             }
             if (prepStatUPD != null) {
-                prepStatUPD.close();
+                releaseStatement(prepStatUPD);
                 prepStatUPD = null;
             }
             if (prepStatDEL != null) {
-                prepStatDEL.close();
+                releaseStatement(prepStatDEL);
                 prepStatDEL = null;
             }
         }
     }
 
+    /**
+     * Runs the insert, update or delete once per record. Kept void for the
+     * callers compiled against 1.2.0; the overloads with an Iterator or a
+     * Stream return the update counts.
+     */
     public void executeBatch(List<JSONObject> records) throws SQLException {
+        executeBatch(records.iterator(), chunk -> {});
+    }
+
+    public List<int[]> executeBatch(Stream<JSONObject> records) throws SQLException {
+        return executeBatch(records.iterator());
+    }
 
+    /**
+     * Runs the insert, update or delete once per record, sending the rows to
+     * the database every batchSize() records. Returns the update counts of
+     * each chunk.
+     */
+    public List<int[]> executeBatch(Iterator<JSONObject> records) throws SQLException {
+        List<int[]> counts = new ArrayList<>();
+        executeBatch(records, counts::add);
+        return counts;
+    }
+
+    /**
+     * Same as executeBatch(Iterator), handing the update counts of each chunk
+     * to onChunk instead of keeping them. Returns the number of records sent.
+     *
+     * Values are read from each record by the names in fields(), followed
+     * by the names in keys() for the where placeholders of updates and
+     * deletes. The same prepared statement is reused for every chunk.
+     */
+    public long executeBatch(Iterator<JSONObject> records, Consumer<int[]> onChunk) throws SQLException {
+        String sql;
+        String[] names;
+        switch (this.operation) {
+            case INSERT:
+                if (this.sqlINS.length() == 0) {
+                    prepareInsert();
+                }
+                sql = this.sqlINS.toString();
+                names = fieldsINS;
+                break;
+            case UPDATE:
+                if (this.sqlUPD.length() == 0) {
+                    prepareUpdate();
+                }
+                sql = this.sqlUPD.toString();
+                names = concat(fieldsUPD, batchKeys);
+                break;
+            case DELETE:
+                if (this.sqlDEL.length() == 0) {
+                    prepareDelete();
+                }
+                sql = this.sqlDEL.toString();
+                names = batchKeys;
+                break;
+            default:
+                throw new SQLException("Operacao invalida para batch: " + this.operation);
+        }
+        if (names == null) {
+            throw new SQLException("Nao foram informados os campos do batch.");
+        }
+        long total = 0;
+        int pending = 0;
+        QueryTrace trace = trace(this.operation, sql, names.length);
+        PreparedStatement ps = prepareStatement(sql, trace);
+        trace.prepared();
         try {
-            if (this.sqlINS.length() == 0) {
-                prepareInsert();
-            }
-            if (prepStatINS == null) {
-                prepStatINS = conn.prepareStatement(this.sqlINS.toString());
-            }
-            for (JSONObject record: records) {
-                for (int i=0; i<record.length(); i++) {
+            while (records.hasNext()) {
+                JSONObject record = records.next();
+                for (int i=0; i<names.length; i++) {
                     try {
-                        prepStatINS.setObject(i + 1, record.get(fieldsINS[i]));
+                        Object value = record.get(names[i]);
+                        ParamBuffer.bind(ps, i + 1, value == JSONObject.NULL ? null : value);
                     } catch (Exception e) {
                         throw new SQLException(e.getMessage() + "\r\n" + record.toString());
                     }
                 }
-                prepStatINS.addBatch();
+                ps.addBatch();
+                total++;
+                if (++pending >= batchSize) {
+                    onChunk.accept(ps.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                onChunk.accept(ps.executeBatch());
             }
-            prepStatINS.executeBatch();
+            trace.updated(total);
+        } catch (SQLException e) {
+            trace.failed(e);
+            throw e;
         } finally {
-            this.queryParams = new ArrayList<>();
-            if (prepStatINS != null) {
-                prepStatINS.close();
-                prepStatINS = null;
+            trace.finish();
+            this.queryParams.clear();
+            try {
+                ps.clearBatch();
+            } finally {
+                releaseStatement(ps);
             }
         }
+        return total;
+    }
+
+    public long bulkLoad(String table, String fields, List<JSONObject> records) throws SQLException {
+        return bulkLoad(table, fields, records.iterator());
+    }
+
+    public long bulkLoad(String table, String fields, Stream<JSONObject> records) throws SQLException {
+        return bulkLoad(table, fields, records.iterator());
+    }
+
+    /**
+     * Inserts the records using the fastest path of the database: COPY FROM
+     * STDIN on PostgreSQL, multi-row "values (...),(...)" inserts on MySQL,
+     * H2 and SQL Server, and a JDBC batch on the others. On PostgreSQL,
+     * records whose first one has a value COPY cannot write, as a
+     * JSONObject, use the multi-row inserts. Returns the number of records
+     * loaded.
+     */
+    public long bulkLoad(String table, String fields, Iterator<JSONObject> records) throws SQLException {
+        String[] flds = SQLBuilder.split(fields);
+        String tableName = table;
+        if (schema != null && !schema.isEmpty()) {
+            tableName = Dialect.of(dbType).quote(schema) + "." + table;
+        }
+        int rows = Math.min(batchSize, BulkLoader.maxParams(dbType) / flds.length);
+        try {
+            if (dbType == DataBaseType.POSTGRESQL && BulkLoader.supportsCopy(conn) && records.hasNext()) {
+                // O primeiro registro decide: COPY so escreve valores simples
+                JSONObject first = records.next();
+                records = BulkLoader.prepend(first, records);
+                if (BulkLoader.copyable(first, flds)) {
+                    return BulkLoader.copy(conn, tableName, flds, records);
+                }
+            }
+            if (dbType == DataBaseType.MSSQL || dbType == DataBaseType.MSSQL_JTDS) {
+                // SQL Server aceita no maximo 1000 linhas por values
+                return BulkLoader.multiRowInsert(this, tableName, flds, records, Math.min(rows, 1000));
+            }
+            if (dbType == DataBaseType.MYSQL ||
+                dbType == DataBaseType.H2 ||
+                dbType == DataBaseType.POSTGRESQL) {
+                return BulkLoader.multiRowInsert(this, tableName, flds, records, rows);
+            }
+        } finally {
+            this.queryParams.clear();
+        }
+        return insert(table).fields(flds).executeBatch(records, chunk -> {});
+    }
+
+    /**
+     * Runs the current select asynchronously. The select is copied into a
+     * Query and runs on a connection borrowed from the data source, so this
+     * FacilDB can build the next query right away. Needs a FacilDB connected
+     * through a FacilDataSource.
+     */
+    public CompletableFuture<JSONArray> queryAsync() throws SQLException {
+        if (dataSource == null) {
+            throw new SQLException("queryAsync() exige uma conexao de um FacilDataSource.");
+        }
+        if (this.operation != SQLCommand.SELECT) {
+            throw new SQLException("Operacao invalida!: nao foi indicada SQL_SELECT: " + this.operation);
+        }
+        Query query;
+        if (this.sqlSEL.length() > 0) {
+            query = Query.sql(this.sqlSEL.toString());
+        } else {
+            query = Query.select(fieldsSEL)
+                         .schema(schema)
+                         .from(from)
+                         .where(whereSEL)
+                         .orderBy(orderBy)
+                         .maxResults(maxResults)
+                         .offset(offset);
+        }
+        if (sqlAliases != null) {
+            query = query.sqlAlias(sqlAliases);
+        }
+        query = query.dateMode(dateMode);
+        Object[] params = this.queryParams.toArray();
+        this.queryParams.clear();
+        lastSQL = query.compile(dbType);
+        return dataSource.queryAsync(query, params);
     }
 
     public JSONArray query() throws SQLException {
         if (this.operation == SQLCommand.SELECT) {
-            return querySelect();
+            return querySelect(null);
         } else if (this.operation == SQLCommand.PROCEDURE) {
             return queryProcedure(false);
         } 
         throw new SQLException("Operacao invalida!: nao foi indicada SQL_SELECT ou SQL_PROCEDURE: " + this.operation);
     }
             
-    private JSONArray querySelect() throws SQLException {
+    /**
+     * Runs the select as one keyset page of up to size rows, ordered by the
+     * key columns. The key predicate is added to the where of the select,
+     * whose orderBy(), maxResults() and offset() are ignored. The key columns must be
+     * in the select fields. Works only with select(), not sql().
+     */
+    public Page page(Keyset keyset, int size) throws SQLException {
+        if (this.operation != SQLCommand.SELECT || this.sqlSEL.length() > 0) {
+            throw new SQLException("page() exige um select() montado pelo FacilDB.");
+        }
+        if (size <= 0) {
+            throw new SQLException("Tamanho de pagina invalido: " + size);
+        }
+        String[] keys = keyset.getColumns();
+        int[] keyFields = new int[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            keyFields[k] = keyField(keys[k]);
+        }
+        String where = this.whereSEL;
+        String order = this.orderBy;
+        int max = this.maxResults;
+        int skip = this.offset;
+        String predicate = keyset.predicate(dbType);
+        if (predicate != null) {
+            if (where == null || where.trim().isEmpty()) {
+                this.whereSEL = predicate;
+            } else {
+                String wh = where.toLowerCase().trim();
+                if (wh.startsWith("join") || wh.startsWith("inner") || wh.startsWith("group")) {
+                    throw new SQLException("page() nao aceita where iniciando com join ou group; use from().");
+                }
+                this.whereSEL = "(" + where + ") and " + predicate;
+            }
+            for (Object value: keyset.params(dbType)) {
+                this.queryParams.add(value);
+            }
+        }
+        this.orderBy = keyset.orderBy();
+        this.maxResults = size + 1;
+        this.offset = 0;
+        int[] keyColumns = new int[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            keyColumns[k] = keyFields[k] + 1;
+        }
+        KeyCapture capture = new KeyCapture(keyColumns, size - 1);
+        JSONArray records;
+        try {
+            records = querySelect(capture);
+        } finally {
+            this.whereSEL = where;
+            this.orderBy = order;
+            this.maxResults = max;
+            this.offset = skip;
+            this.sqlSEL = new StringBuilder();
+        }
+        if (records.length() <= size) {
+            return new Page(records, null);
+        }
+        records.remove(size);
+        return new Page(records, keyset.next(capture.values));
+    }
+
+    private int keyField(String key) throws SQLException {
+        for (int i = 0; i < fieldsSEL.length; i++) {
+            if (fieldsSEL[i].equalsIgnoreCase(key)) {
+                return i;
+            }
+        }
+        // Sem o nome qualificado, so vale um campo de mesmo nome
+        int p = key.lastIndexOf('.');
+        String name = key.substring(p + 1);
+        int found = -1;
+        for (int i = 0; i < fieldsSEL.length; i++) {
+            String field = fieldsSEL[i];
+            if (field.substring(field.lastIndexOf('.') + 1).equalsIgnoreCase(name)) {
+                if (found >= 0) {
+                    throw new SQLException("Coluna chave ambigua nos campos do select: " + key);
+                }
+                found = i;
+            }
+        }
+        if (found < 0) {
+            throw new SQLException("Coluna chave nao esta nos campos do select: " + key);
+        }
+        return found;
+    }
+
+    /**
+     * Runs the select. With a KeyCapture, the key columns of one row are
+     * also read from the ResultSet, with their JDBC types.
+     */
+    private JSONArray querySelect(KeyCapture capture) throws SQLException {
 
         JSONArray records = new JSONArray();
         
@@ -623,67 +1177,328 @@ public class FacilDB {
             prepareSelect();
             lastSQL = this.sqlSEL.toString();
         }
+        QueryTrace trace = trace(SQLCommand.SELECT, this.sqlSEL.toString());
         if (prepStatSEL == null) {
-            prepStatSEL = conn.prepareStatement(this.sqlSEL.toString());
+            prepStatSEL = prepareStatement(this.sqlSEL.toString(), trace);
         }
+        trace.prepared();
+        applyQueryOptions(prepStatSEL, false);
         // Seta os parametros
-        int i = 1;
-        for (Object value: this.queryParams) {
-            prepStatSEL.setObject(i++, value);
-        }
+        this.queryParams.bind(prepStatSEL);
         ResultSet rs = null;
         // Executa a query
         try {
             validSqlAlias();
             rs = prepStatSEL.executeQuery();
+            trace.executed();
             if (rs.isBeforeFirst()) {
+                ResultSetMapper mapper = mapper(rs, trace);
                 while (rs.next()) {
-                    JSONObject jsObj = new JSONObject();
-                    for(String alias: sqlAliases) {
-                        Object value = rs.getObject(alias);
-                        if (value == null) {
-                            jsObj.put(alias, JSONObject.NULL);
-                        } else if (value instanceof java.sql.Date) {
-                            jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                        } else if (value instanceof java.sql.Timestamp) {  
-                            jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                        } else if (value instanceof java.sql.Clob) {
-                            jsObj.put(alias, rs.getString(alias));
-                        } else {
-                            jsObj.put(alias, value);	
-                        }
+                    if (capture != null && capture.row == records.length()) {
+                        capture.values = Keyset.readKey(rs, capture.columns);
                     }
-                    records.put(jsObj);
+                    records.put(mapper.map(rs));
                 }
+                trace.fetched(mapper.getRows(), mapper.getBytes());
             }
         } catch (Exception e) {
-            e.printStackTrace();
             if (e != null && e.getMessage() != null && 
                 !e.getMessage().startsWith(NO_DATA_AVAILABLE)) {
+                trace.failed(e);
                 throw e;
             }
+            LOGGER.log(Level.FINE, e.getMessage(), e);
         } finally {
-            this.queryParams = new ArrayList<>();
+            trace.finish();
+            this.queryParams.clear();
             if (rs != null) {
                 rs.close();
             }
             if (prepStatSEL != null) {
-                prepStatSEL.close();
+                releaseStatement(prepStatSEL);
                 prepStatSEL = null;
             }
         }
         return records;
     }
     
+    /**
+     * Runs the select and maps each row to a record or POJO with a
+     * BeanRowMapper, without building JSONObjects.
+     */
+    public <T> List<T> query(Class<T> type) throws SQLException {
+        return query(new BeanRowMapper<>(type));
+    }
+
+    public <T> List<T> query(RowMapper<T> mapper) throws SQLException {
+        if (this.operation != SQLCommand.SELECT) {
+            throw new SQLException("Operacao invalida!: nao foi indicada SQL_SELECT: " + this.operation);
+        }
+        if (this.sqlSEL.length() == 0) {
+            prepareSelect();
+            lastSQL = this.sqlSEL.toString();
+        }
+        QueryTrace trace = trace(SQLCommand.SELECT, this.sqlSEL.toString());
+        if (prepStatSEL == null) {
+            prepStatSEL = prepareStatement(this.sqlSEL.toString(), trace);
+        }
+        trace.prepared();
+        applyQueryOptions(prepStatSEL, false);
+        List<T> records = new ArrayList<>();
+        ResultSet rs = null;
+        try {
+            this.queryParams.bind(prepStatSEL);
+            rs = prepStatSEL.executeQuery();
+            trace.executed();
+            while (rs.next()) {
+                records.add(mapper.map(rs));
+            }
+            trace.fetched(records.size(), 0);
+        } catch (SQLException e) {
+            trace.failed(e);
+            throw e;
+        } finally {
+            trace.finish();
+            this.queryParams.clear();
+            if (rs != null) {
+                rs.close();
+            }
+            if (prepStatSEL != null) {
+                releaseStatement(prepStatSEL);
+                prepStatSEL = null;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Runs the select and keeps the result by column, in primitive arrays.
+     * See ColumnarResult.
+     */
+    public ColumnarResult queryColumnar() throws SQLException {
+        if (this.operation != SQLCommand.SELECT) {
+            throw new SQLException("Operacao invalida!: nao foi indicada SQL_SELECT: " + this.operation);
+        }
+        if (this.sqlSEL.length() == 0) {
+            prepareSelect();
+            lastSQL = this.sqlSEL.toString();
+        }
+        QueryTrace trace = trace(SQLCommand.SELECT, this.sqlSEL.toString());
+        if (prepStatSEL == null) {
+            prepStatSEL = prepareStatement(this.sqlSEL.toString(), trace);
+        }
+        trace.prepared();
+        applyQueryOptions(prepStatSEL, false);
+        ResultSet rs = null;
+        try {
+            this.queryParams.bind(prepStatSEL);
+            rs = prepStatSEL.executeQuery();
+            trace.executed();
+            ColumnarResult result = ColumnarResult.from(rs);
+            trace.fetched(result.getRowCount(), 0);
+            return result;
+        } catch (SQLException e) {
+            trace.failed(e);
+            throw e;
+        } finally {
+            trace.finish();
+            this.queryParams.clear();
+            if (rs != null) {
+                rs.close();
+            }
+            if (prepStatSEL != null) {
+                releaseStatement(prepStatSEL);
+                prepStatSEL = null;
+            }
+        }
+    }
+
+    /**
+     * Runs the select and returns its rows as a lazy stream. Rows are read
+     * from the ResultSet as the stream is consumed, so the whole result is
+     * never held in memory. The stream must be closed (try-with-resources)
+     * to release the ResultSet and the statement.
+     */
+    public Stream<JSONObject> queryStream() throws SQLException {
+        if (this.operation != SQLCommand.SELECT) {
+            throw new SQLException("Operacao invalida!: nao foi indicada SQL_SELECT: " + this.operation);
+        }
+        if (this.sqlSEL.length() == 0) {
+            prepareSelect();
+            lastSQL = this.sqlSEL.toString();
+        }
+        QueryTrace trace = trace(SQLCommand.SELECT, this.sqlSEL.toString());
+        // O statement passa a pertencer ao stream
+        PreparedStatement ps = prepStatSEL;
+        prepStatSEL = null;
+        if (ps == null) {
+            ps = prepareStatement(this.sqlSEL.toString(), trace);
+        }
+        trace.prepared();
+        boolean cursor;
+        try {
+            cursor = beginCursor(ps);
+        } catch (SQLException e) {
+            releaseStatement(ps);
+            this.queryParams.clear();
+            trace.failed(e);
+            trace.finish();
+            throw e;
+        }
+        ResultSet rs = null;
+        try {
+            this.queryParams.bind(ps);
+            validSqlAlias();
+            rs = ps.executeQuery();
+            trace.executed();
+        } catch (SQLException e) {
+            trace.failed(e);
+            trace.finish();
+            try {
+                releaseStatement(ps);
+            } finally {
+                endCursor(cursor);
+            }
+            throw e;
+        } finally {
+            this.queryParams.clear();
+        }
+        final ResultSet results = rs;
+        final PreparedStatement statement = ps;
+        final ResultSetMapper mapper;
+        try {
+            mapper = mapper(rs, trace);
+        } catch (SQLException e) {
+            trace.failed(e);
+            trace.finish();
+            try {
+                rs.close();
+                releaseStatement(ps);
+            } finally {
+                endCursor(cursor);
+            }
+            throw e;
+        }
+        // O tempo de fetch inclui o tempo do consumidor do stream
+        ResultSetSpliterator<JSONObject> spliterator = new ResultSetSpliterator<>(
+            results, 
+            mapper::map, 
+            () -> {
+                trace.fetched(mapper.getRows(), mapper.getBytes());
+                trace.finish();
+                try {
+                    results.close();
+                    releaseStatement(statement);
+                } finally {
+                    endCursor(cursor);
+                }
+            });
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+    
+    /**
+     * Runs the select and writes the rows as a JSON array straight to the
+     * writer, without building JSONObjects. Returns the number of rows.
+     */
+    public long queryTo(Writer writer) throws SQLException, IOException {
+        if (this.operation != SQLCommand.SELECT) {
+            throw new SQLException("Operacao invalida!: nao foi indicada SQL_SELECT: " + this.operation);
+        }
+        if (this.sqlSEL.length() == 0) {
+            prepareSelect();
+            lastSQL = this.sqlSEL.toString();
+        }
+        QueryTrace trace = trace(SQLCommand.SELECT, this.sqlSEL.toString());
+        if (prepStatSEL == null) {
+            prepStatSEL = prepareStatement(this.sqlSEL.toString(), trace);
+        }
+        trace.prepared();
+        boolean cursor = beginCursor(prepStatSEL);
+        long rows = 0;
+        ResultSet rs = null;
+        try {
+            this.queryParams.bind(prepStatSEL);
+            validSqlAlias();
+            rs = prepStatSEL.executeQuery();
+            trace.executed();
+            ResultSetMapper mapper = mapper(rs, trace);
+            writer.write('[');
+            while (rs.next()) {
+                if (rows++ > 0) {
+                    writer.write(',');
+                }
+                mapper.write(rs, writer);
+            }
+            writer.write(']');
+            trace.fetched(rows, mapper.getBytes());
+        } catch (SQLException | IOException e) {
+            trace.failed(e);
+            throw e;
+        } finally {
+            trace.finish();
+            this.queryParams.clear();
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (prepStatSEL != null) {
+                    releaseStatement(prepStatSEL);
+                    prepStatSEL = null;
+                }
+            } finally {
+                endCursor(cursor);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Same as queryTo(Writer), writing UTF-8 to the stream. The stream is
+     * flushed but not closed.
+     */
+    public long queryTo(OutputStream out) throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long rows = queryTo(writer);
+        writer.flush();
+        return rows;
+    }
+    
+    /**
+     * Runs an immutable Query with the given parameters on this connection.
+     * The builder state of this FacilDB is not touched.
+     */
+    public JSONArray query(Query query, Object... params) throws SQLException {
+        String sql = query.compile(dbType);
+        lastSQL = sql;
+        QueryTrace trace = trace(SQLCommand.SELECT, sql, params.length);
+        PreparedStatement ps = prepareStatement(sql, trace);
+        trace.prepared();
+        try {
+            applyQueryOptions(ps, false);
+            return query.execute(ps, dbType, params, trace);
+        } catch (SQLException e) {
+            trace.failed(e);
+            throw e;
+        } finally {
+            trace.finish();
+            releaseStatement(ps);
+        }
+    }
+
+    public JSONObject queryUnique(Query query, Object... params) throws SQLException {
+        JSONArray records = query(query, params);
+        return records.length() > 0 ? records.getJSONObject(0) : new JSONObject();
+    }
+    
     public JSONArray queryProcedure(boolean complex) throws SQLException {
 
         JSONArray records = new JSONArray();
+        QueryTrace trace = trace(SQLCommand.PROCEDURE, "{call " + procedure + "}");
+        trace.prepared();
         
         // Seta os parametros
-        int i = 1;
-        for (Object value: this.queryParams) {
-            callableStatement.setObject(i++, value);
-        }
+        this.queryParams.bind(callableStatement);
+        applyQueryOptions(callableStatement, false);
         
         ResultSet rs = null;
         
@@ -692,150 +1507,119 @@ public class FacilDB {
             validSqlAlias();
             
             if (complex) {
-    
-                int resultNum = 0;
-                while (true) {
-                    boolean queryResult;
-                    int rowsAffected;
-                    if (1 == ++resultNum) {
-                        try {
-                            queryResult = callableStatement.execute();
-                        } catch (SQLException e) {
-                            continue;
-                        }
-                    } else {
-                        try {
-                            queryResult = callableStatement.getMoreResults();
-                        }
-                        catch (SQLException e) {
-                            continue;
+                // Todos os result sets, cada um com os seus proprios rotulos
+                // quando nao ha sqlAlias(); erros da procedure sao lancados
+                ProcedureResults results = new ProcedureResults(callableStatement, dateMode, trace);
+                try {
+                    while (results.next()) {
+                        if (results.isResultSet()) {
+                            results.addRecords(records, sqlAliases);
                         }
                     }
-
-                    if (queryResult) {
-                        rs = callableStatement.getResultSet();
-                        if (rs.isBeforeFirst()) {
-                            while (rs.next()) {
-                                JSONObject jsObj = new JSONObject();
-                                for(String alias: sqlAliases) {
-                                    Object value = rs.getObject(alias);
-                                    if (value == null) {
-                                        jsObj.put(alias, JSONObject.NULL);
-                                    } else if (value instanceof java.sql.Date) {
-                                        jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                                    } else if (value instanceof java.sql.Timestamp) {  
-                                        jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                                    } else {
-                                        jsObj.put(alias, value);	
-                                    }
-                                }
-                                records.put(jsObj);
-                            }
-                        }
-                        if (rs != null) {
-                            rs.close();
-                        }
-                    } else {
-                        rowsAffected = callableStatement.getUpdateCount();
-                        if (-1 == rowsAffected) {
-                            --resultNum;
-                            break;
-                        }
-                    }
-                }        
-  
+                } finally {
+                    results.close();
+                }
             } else {
                 rs = callableStatement.executeQuery();
+                trace.executed();
                 if (rs.isBeforeFirst()) {
+                    ResultSetMapper mapper = mapper(rs, trace);
                     while (rs.next()) {
-                        JSONObject jsObj = new JSONObject();
-                        for(String alias: sqlAliases) {
-                            Object value = rs.getObject(alias);
-                            if (value == null) {
-                                jsObj.put(alias, JSONObject.NULL);
-                            } else if (value instanceof java.sql.Date) {
-                                jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                            } else if (value instanceof java.sql.Timestamp) {  
-                                jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                            } else {
-                                jsObj.put(alias, value);	
-                            }
-                        }
-                        records.put(jsObj);
+                        records.put(mapper.map(rs));
                     }
+                    trace.fetched(mapper.getRows(), mapper.getBytes());
                 }
             }
         } catch (Exception e) {
-            e.printStackTrace();
             if (e != null && e.getMessage() != null &&
                 !e.getMessage().startsWith(NO_DATA_AVAILABLE)) {
+                trace.failed(e);
                 throw e;
             }
+            LOGGER.log(Level.FINE, e.getMessage(), e);
         } finally {
-            this.queryParams = new ArrayList<>();
+            trace.finish();
+            this.queryParams.clear();
             if (rs != null) {
                 rs.close();
             }
             if (prepStatSEL != null) {
-                prepStatSEL.close();
+                releaseStatement(prepStatSEL);
                 prepStatSEL = null;
             }
         }
         return records;
     }
     
+    /**
+     * Runs the procedure of call() and returns its results, result sets and
+     * update counts, to be read one by one. See ProcedureResults.
+     */
+    public ProcedureResults queryResults() throws SQLException {
+        if (this.operation != SQLCommand.PROCEDURE || callableStatement == null) {
+            throw new SQLException("Operacao invalida!: nao foi indicada SQL_PROCEDURE: " + this.operation);
+        }
+        QueryTrace trace = trace(SQLCommand.PROCEDURE, "{call " + procedure + "}");
+        trace.prepared();
+        try {
+            this.queryParams.bind(callableStatement);
+            applyQueryOptions(callableStatement, false);
+        } catch (SQLException e) {
+            trace.failed(e);
+            trace.finish();
+            throw e;
+        } finally {
+            this.queryParams.clear();
+        }
+        return new ProcedureResults(callableStatement, dateMode, trace);
+    }
+
     public JSONObject queryUnique() throws SQLException {
         // Prepara o select
         if (this.sqlSEL.length() == 0) {
             prepareSelect();
             lastSQL =  this.sqlSEL.toString();
         }
+        QueryTrace trace = trace(SQLCommand.SELECT, this.sqlSEL.toString());
         if (prepStatSEL == null) {
-            prepStatSEL = conn.prepareStatement(this.sqlSEL.toString());
+            prepStatSEL = prepareStatement(this.sqlSEL.toString(), trace);
         }
-        prepStatSEL = conn.prepareStatement(this.sqlSEL.toString());
+        trace.prepared();
+        applyQueryOptions(prepStatSEL, false);
         // Seta os parametros
-        int i = 1;
-        for (Object value: this.queryParams) {
-            prepStatSEL.setObject(i++, value);
-        }
+        this.queryParams.bind(prepStatSEL);
         validSqlAlias();
         // Executa a query
         JSONObject jsObj = new JSONObject();
         ResultSet rs = null;
         try {
             rs = prepStatSEL.executeQuery();
+            trace.executed();
             if (rs.isBeforeFirst()) {
                 rs.next();
-                for(String alias: sqlAliases) {
-                    Object value = rs.getObject(alias);
-                    if (value == null) {
-                        jsObj.put(alias, JSONObject.NULL);
-                    } else if (value instanceof java.sql.Date) {  
-                        jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                    } else if (value instanceof java.sql.Timestamp) {  
-                        jsObj.put(alias, DateUtil.dateToString((Date)value, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
-                    } else {
-                        jsObj.put(alias, value);	
-                    }
-                }
+                ResultSetMapper mapper = mapper(rs, trace);
+                jsObj = mapper.map(rs);
+                trace.fetched(mapper.getRows(), mapper.getBytes());
             }
             
         } catch (Exception e) {
             if (e.getMessage() == null) {
+                trace.failed(e);
                 throw e;
             }
             if (!e.getMessage().startsWith(NO_DATA_AVAILABLE) && 
                 !e.getMessage().startsWith("The result set has no current row")) {
+                trace.failed(e);
                 throw e;
             }
         } finally {
-            this.queryParams = new ArrayList<>();
+            trace.finish();
+            this.queryParams.clear();
             if (rs != null) {
                 rs.close();
             }
             if (prepStatSEL != null) {
-                prepStatSEL.close();
+                releaseStatement(prepStatSEL);
                 prepStatSEL = null;
             }
         }
@@ -843,28 +1627,36 @@ public class FacilDB {
     }
     
     public long queryCount() throws SQLException {
+        QueryTrace trace = trace(SQLCommand.SELECT, this.sqlSEL.toString());
         if (prepStatSEL == null) {
-            prepStatSEL = conn.prepareStatement(this.sqlSEL.toString());
+            prepStatSEL = prepareStatement(this.sqlSEL.toString(), trace);
         }
+        trace.prepared();
+        applyQueryOptions(prepStatSEL, false);
         long count = 0;
-        int i = 1;
-        for (Object value: this.queryParams) {
-            prepStatSEL.setObject(i++, value);
-        }
+        this.queryParams.bind(prepStatSEL);
         ResultSet rs = null;
         try {
             rs = prepStatSEL.executeQuery();
+            trace.executed();
+            long rows = 0;
             if (rs.isBeforeFirst()) {
                 while (rs.next()) {
                     count = rs.getLong(1);
+                    rows++;
                 }
             }
+            trace.fetched(rows, 8 * rows);
+        } catch (SQLException e) {
+            trace.failed(e);
+            throw e;
         } finally {
-            this.queryParams = new ArrayList<>();
+            trace.finish();
+            this.queryParams.clear();
             if (rs != null) {
                 rs.close();
             }
-            prepStatSEL.close();
+            releaseStatement(prepStatSEL);
             prepStatSEL = null;
         }
         return count;
@@ -922,79 +1714,15 @@ public class FacilDB {
     ////////////////////////////////////////////////////////////////////////////
     
     private void prepareSelect() throws SQLException {
-        sqlSEL.append("\r\nselect ");
-        if (maxResults > 0) {
-            if (this.dbType == DataBaseType.H2 || 
-                this.dbType == DataBaseType.MSSQL || 
-                this.dbType == DataBaseType.MSSQL_JTDS || 
-                this.dbType == DataBaseType.PERVASIVE_PSQL || 
-                this.dbType == DataBaseType.PROGRESS) {
-                sqlSEL.append("top ").append(String.valueOf(maxResults)).append(" ");
-            } else if (this.dbType == DataBaseType.FIREBIRD) {
-                sqlSEL.append("first ").append(String.valueOf(maxResults)).append(" ");
-            }
-        }
         validSqlAlias();
-        if (fieldsSEL.length != sqlAliases.length) {
-            throw new SQLException("Numero de campos informados diferente do numero de SQL Aliases");
-        }
-        int i=0;
-        for (String field: fieldsSEL) {
-            if (this.dbType == DataBaseType.POSTGRESQL) {
-                sqlSEL.append(field).append(" as \"").append(sqlAliases[i++]).append("\",");
-            } else {
-                sqlSEL.append(field).append(" \"").append(sqlAliases[i++]).append("\",");
-            }
-        }
-        sqlSEL.deleteCharAt(sqlSEL.length()-1);
-        if (from != null && !from.isEmpty()) {
-            sqlSEL.append("\r\n   from ");
-            if (schema != null && !schema.isEmpty()) {
-                sqlSEL.append("\"").append(schema).append("\".");
-            }
-            sqlSEL.append(from)
-                  .append("\r\n");
-        } else {
-            throw new SQLException ("Nao foi informado o FROM para o SELECT.");
-        }
-        if (whereSEL != null && !whereSEL.isEmpty()) {
-            String wh = whereSEL.toLowerCase().trim();
-            if (!wh.startsWith("join") && 
-                !wh.startsWith("inner") &&
-                !wh.startsWith("group")) {
-                sqlSEL.append("   where ");
-            }
-            sqlSEL.append(whereSEL);
-        }
-        if (maxResults > 0) {
-            if (this.dbType == DataBaseType.ORACLE) {
-                if (whereSEL == null || whereSEL.isEmpty()) {
-                    sqlSEL.append("   where rownum <= ").append(String.valueOf(maxResults));
-                } else {
-                    sqlSEL.append(" and rownum <= ").append(String.valueOf(maxResults));
-                }
-            } 
-        }
-        sqlSEL.append("\r\n");
-        if (!orderBy.isEmpty()) {
-            sqlSEL.append("   order by ")
-                  .append(orderBy)
-                  .append("\r\n");
-        }
-        if (maxResults > 0 &&
-            this.dbType == DataBaseType.MYSQL || 
-            this.dbType == DataBaseType.POSTGRESQL) {
-            sqlSEL.append("    limit ").append(String.valueOf(maxResults)).append("\r\n"); 
-        }
-        if (this.dbType == DataBaseType.PROGRESS) {
-            sqlSEL.append("    with (nolock)\r\n");
-        }
+        sqlSEL.append(SQLBuilder.select(dbType, fieldsSEL, sqlAliases, schema, 
+                                        from, whereSEL, orderBy, maxResults, offset));
     }
     
     private void prepareInsert() throws SQLException {
         sqlINS.append("\r\ninsert into ");
         if (schema != null && !schema.isEmpty()) {
-            sqlINS.append("\"").append(schema).append("\".");
+            sqlINS.append(Dialect.of(dbType).quote(schema)).append(".");
         }
         if (tableNames != null && !tableNames.isEmpty()) {
             sqlINS.append(tableNames);
@@ -1023,7 +1751,7 @@ public class FacilDB {
     private void prepareUpdate() throws SQLException {
         sqlUPD.append("\r\nupdate ");
         if (schema != null && !schema.isEmpty()) {
-            sqlUPD.append("\"").append(schema).append("\".");
+            sqlUPD.append(Dialect.of(dbType).quote(schema)).append(".");
         }
         if (tableNames != null && !tableNames.isEmpty()) {
             sqlUPD.append(tableNames);
@@ -1052,7 +1780,7 @@ public class FacilDB {
     private void prepareDelete() throws SQLException {
         sqlDEL.append("delete from ");
         if (schema != null && !schema.isEmpty()) {
-            sqlDEL.append("\"").append(schema).append("\".");
+            sqlDEL.append(Dialect.of(dbType).quote(schema)).append(".");
         }
         if (tableNames != null && !tableNames.isEmpty()) {
             sqlDEL.append(tableNames);
@@ -1065,17 +1793,135 @@ public class FacilDB {
         lastSQL = sqlDEL.toString();
     }
 
+    private static boolean isDDL(String sqlsl) {
+        return DDL_PATTERN.matcher(sqlsl).lookingAt();
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+        String[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    PreparedStatement prepareStatement(String sql) throws SQLException {
+        StatementCache cache = getStatementCache();
+        if (cache == null) {
+            return conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+        return cache.prepare(sql);
+    }
+
+    CallableStatement prepareCall(String call) throws SQLException {
+        StatementCache cache = getStatementCache();
+        if (cache == null) {
+            return conn.prepareCall(call);
+        }
+        return cache.prepareCall(call);
+    }
+
+    void releaseStatement(PreparedStatement ps) throws SQLException {
+        if (ps == null) {
+            return;
+        }
+        if (statementCache != null) {
+            statementCache.release(ps);
+        } else {
+            ps.close();
+        }
+    }
+
+    private QueryTrace trace(SQLCommand operation, String sql) {
+        return trace(operation, sql, this.queryParams.size());
+    }
+
+    private QueryTrace trace(SQLCommand operation, String sql, int binds) {
+        return QueryTrace.start(queryListeners, QUERY_LISTENERS, operation, sql, binds);
+    }
+
+    /**
+     * Prepares the statement, reporting a failure, e.g. a syntax error, to
+     * the listeners.
+     */
+    private PreparedStatement prepareStatement(String sql, QueryTrace trace) throws SQLException {
+        try {
+            return prepareStatement(sql);
+        } catch (SQLException e) {
+            trace.failed(e);
+            trace.finish();
+            throw e;
+        }
+    }
+
+    private ResultSetMapper mapper(ResultSet rs, QueryTrace trace) throws SQLException {
+        ResultSetMapper mapper = new ResultSetMapper(rs, sqlAliases, dateMode);
+        if (trace.isActive()) {
+            mapper.measure();
+        }
+        return mapper;
+    }
+
+    /**
+     * Sets the fetch size, max rows and timeout of the next query on the
+     * statement and clears them. Cached statements keep the options of
+     * their last use, so all of them are set every time, here and in
+     * FacilDataSource.query(), which shares the cache of a pooled connection.
+     */
+    private void applyQueryOptions(Statement ps, boolean streaming) throws SQLException {
+        int fetch = fetchSize != 0 ? fetchSize : defaultFetchSize;
+        if (fetch == 0) {
+            fetch = Dialect.of(dbType).fetchSize(streaming);
+        }
+        try {
+            ps.setFetchSize(fetch);
+            ps.setMaxRows(maxRows > 0 ? maxRows : defaultMaxRows);
+            ps.setQueryTimeout(queryTimeout > 0 ? queryTimeout : defaultQueryTimeout);
+        } finally {
+            this.fetchSize = 0;
+            this.maxRows = 0;
+            this.queryTimeout = 0;
+        }
+    }
+
+    /**
+     * Options of a select read row by row. When the database only fetches
+     * in batches inside a transaction (PostgreSQL) and autocommit is on,
+     * turns autocommit off and returns true; endCursor() turns it back on.
+     */
+    private boolean beginCursor(Statement ps) throws SQLException {
+        applyQueryOptions(ps, true);
+        if (Dialect.of(dbType).cursorNeedsTransaction() && ps.getFetchSize() > 0 && conn.getAutoCommit()) {
+            conn.setAutoCommit(false);
+            return true;
+        }
+        return false;
+    }
+
+    private void endCursor(boolean cursor) throws SQLException {
+        if (cursor) {
+            conn.setAutoCommit(true);
+        }
+    }
+
     private void validSqlAlias() {
-        if (sqlAliases == null) {
-            sqlAliases = new String[fieldsSEL.length];
-            int m = 0;
-            for (String name: fieldsSEL) {
-                if (this.dbType == DataBaseType.PERVASIVE_PSQL) {
-                    name = name.replace("\\.", "_");
-                }
-                sqlAliases[m++] = name;
-            }
+        if (sqlAliases == null && fieldsSEL != null) {
+            sqlAliases = SQLBuilder.aliases(dbType, fieldsSEL);
         }    
     }
     
+    /**
+     * Key values of one row of a keyset page.
+     */
+    private static final class KeyCapture {
+        private final int[] columns;
+        private final int row;
+        private Object[] values;
+
+        KeyCapture(int[] columns, int row) {
+            this.columns = columns;
+            this.row = row;
+        }
+    }
 }
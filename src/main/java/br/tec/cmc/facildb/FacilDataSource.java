@@ -0,0 +1,491 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.json.JSONArray;
+
+import br.tec.cmc.facildb.dialect.Dialect;
+
+/**
+ * Simple connection pool used by FacilDB.
+ *
+ * Connections are borrowed with getConnection() and given back with
+ * release(). Idle connections above minSize are evicted after idleTimeout
+ * and a borrow waits at most borrowTimeout for a free connection.
+ *
+ * There is no background thread: idle connections are evicted on each
+ * getConnection() and release(), so a pool that is not used keeps its
+ * connections until evictIdle() is called, e.g. from a scheduler of the
+ * application.
+ *
+ * When pooling is enabled with FacilDataSource.enablePooling(), every
+ * FacilDB created with an URI (FacilH2, FacilPostgreSQL, ...) draws its
+ * connection from a shared pool and returns it on closeConnection().
+ */
+public class FacilDataSource {
+
+    private final String uri;
+    private final String username;
+    private final String password;
+    private DataBaseType dbType;
+    private int minSize = 0;
+    private int maxSize = 10;
+    private long idleTimeout = 600000L;
+    private long borrowTimeout = 30000L;
+    private int validationTimeout = 10;
+    private Executor executor;
+
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
+    private int statementCacheSize = StatementCache.DEFAULT_SIZE;
+    private int total;
+    private boolean closed;
+
+    private static final Map<String, FacilDataSource> POOLS = new ConcurrentHashMap<>();
+    private static volatile FacilDataSource poolingConfig;
+
+    public FacilDataSource(String uri, String username, String password) {
+        this.uri = uri;
+        this.username = username;
+        this.password = password;
+        this.dbType = DataBaseType.fromUri(uri);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // SHARED POOLS ////////////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Enables pooling for every FacilDB connected by URI. The sizes and
+     * timeouts (in milliseconds) are used for each new shared pool.
+     */
+    public static void enablePooling(int minSize, int maxSize, long idleTimeout, long borrowTimeout) {
+        FacilDataSource config = new FacilDataSource(null, null, null);
+        config.setMinSize(minSize);
+        config.setMaxSize(maxSize);
+        config.setIdleTimeout(idleTimeout);
+        config.setBorrowTimeout(borrowTimeout);
+        poolingConfig = config;
+    }
+
+    /**
+     * Disables pooling and closes all shared pools.
+     */
+    public static void disablePooling() {
+        poolingConfig = null;
+        for (FacilDataSource ds : POOLS.values()) {
+            ds.close();
+        }
+        POOLS.clear();
+    }
+
+    public static boolean isPoolingEnabled() {
+        return poolingConfig != null;
+    }
+
+    static FacilDataSource sharedPool(String uri, String username, String password, DataBaseType dbType) {
+        FacilDataSource config = poolingConfig;
+        String key = uri + "|" + username;
+        return POOLS.computeIfAbsent(key, k -> {
+            FacilDataSource ds = new FacilDataSource(uri, username, password);
+            ds.setDbType(dbType);
+            if (config != null) {
+                ds.setMinSize(config.getMinSize());
+                ds.setMaxSize(config.getMaxSize());
+                ds.setIdleTimeout(config.getIdleTimeout());
+                ds.setBorrowTimeout(config.getBorrowTimeout());
+            }
+            return ds;
+        });
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // BORROW AND RELEASE //////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Borrows a connection from the pool, opening a new one when there is no
+     * idle connection and the pool is below maxSize.
+     */
+    public Connection getConnection() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeout;
+        while (true) {
+            PooledConnection pooled = null;
+            boolean create = false;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Pool de conexoes fechado: " + uri);
+                }
+                evictIdle();
+                pooled = idle.pollFirst();
+                if (pooled == null) {
+                    if (total < maxSize) {
+                        total++;
+                        create = true;
+                    } else {
+                        long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            throw new SQLException("Timeout aguardando conexao do pool: " + uri);
+                        }
+                        try {
+                            wait(wait);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("Interrompido aguardando conexao do pool: " + uri, e);
+                        }
+                        continue;
+                    }
+                }
+            }
+            if (create) {
+                try {
+                    return openConnection();
+                } catch (SQLException e) {
+                    synchronized (this) {
+                        total--;
+                        notifyAll();
+                    }
+                    throw e;
+                }
+            }
+            boolean valid;
+            try {
+                valid = isValid(pooled.conn, dbType, validationTimeout);
+            } catch (Exception | AbstractMethodError e) {
+                // Drivers JDBC3 nao implementam o isValid()
+                valid = false;
+            }
+            if (valid) {
+                return pooled.conn;
+            }
+            discard(pooled.conn);
+        }
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool. Pending transactions are
+     * rolled back and auto commit is restored.
+     */
+    public void release(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        boolean reusable;
+        try {
+            reusable = !conn.isClosed();
+            if (reusable && !conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (!reusable) {
+            discard(conn);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                total--;
+                destroy(conn);
+            } else {
+                idle.addFirst(new PooledConnection(conn, System.currentTimeMillis()));
+                evictIdle();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes the idle connections and marks the pool as closed. Connections
+     * still borrowed are closed when released.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (PooledConnection pooled : idle) {
+            destroy(pooled.conn);
+            total--;
+        }
+        idle.clear();
+        notifyAll();
+    }
+
+    /**
+     * Opens connections until the pool holds minSize connections.
+     */
+    public void fill() throws SQLException {
+        while (true) {
+            synchronized (this) {
+                if (closed || total >= minSize) {
+                    return;
+                }
+                total++;
+            }
+            Connection conn;
+            try {
+                conn = openConnection();
+            } catch (SQLException e) {
+                synchronized (this) {
+                    total--;
+                }
+                throw e;
+            }
+            release(conn);
+        }
+    }
+
+    /**
+     * Closes the idle connections unused for idleTimeout, keeping minSize
+     * connections open.
+     */
+    public synchronized void evictIdle() {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long limit = System.currentTimeMillis() - idleTimeout;
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && total > minSize) {
+            PooledConnection pooled = it.next();
+            if (pooled.lastUsed < limit) {
+                it.remove();
+                total--;
+                destroy(pooled.conn);
+            }
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getTotalCount() {
+        return total;
+    }
+
+    /**
+     * Returns the statement cache of a pooled connection. The cache lives as
+     * long as the physical connection, so statements survive release().
+     */
+    public synchronized StatementCache statementCache(Connection conn) {
+        return statementCaches.computeIfAbsent(conn, c -> new StatementCache(c, statementCacheSize));
+    }
+
+    /**
+     * Closes the cached statements of all connections of the pool, after a
+     * DDL changed the tables they read. Statements in use are kept.
+     */
+    public void clearStatementCaches() {
+        List<StatementCache> caches;
+        synchronized (this) {
+            caches = new ArrayList<>(statementCaches.values());
+        }
+        for (StatementCache cache : caches) {
+            cache.close();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // ASYNC QUERIES ///////////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Runs the query on the executor. Each task borrows its own connection,
+     * so independent queries run in parallel.
+     */
+    public CompletableFuture<JSONArray> queryAsync(Query query, Object... params) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return query(query, params);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, getExecutor());
+    }
+
+    /**
+     * Runs the query on a borrowed connection, using the statement cache of
+     * that connection. The statement may come from a FacilDB with its own
+     * query options, so all of them are set back to the defaults.
+     */
+    public JSONArray query(Query query, Object... params) throws SQLException {
+        Connection conn = getConnection();
+        try {
+            StatementCache cache = statementCache(conn);
+            PreparedStatement ps = cache.prepare(query.compile(dbType));
+            try {
+                ps.setFetchSize(Dialect.of(dbType).fetchSize(false));
+                ps.setMaxRows(0);
+                ps.setQueryTimeout(0);
+                return query.execute(ps, dbType, params);
+            } finally {
+                cache.release(ps);
+            }
+        } finally {
+            release(conn);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // VALIDATION //////////////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+
+    static boolean isValid(Connection conn, DataBaseType dbType, int timeout) throws SQLException {
+        boolean resp = false;
+        if (conn != null) {
+            if (dbType == DataBaseType.MSSQL_JTDS) {
+                // JTDS nao suporta o isValid()
+                resp = !conn.isClosed();
+            } else {
+                resp = conn.isValid(timeout);
+            }
+        }
+        return resp;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // GETTERS AND SETTERS /////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public DataBaseType getDbType() {
+        return dbType;
+    }
+
+    public void setDbType(DataBaseType dbType) {
+        this.dbType = dbType;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Executor of queryAsync(). Defaults to virtual threads on JDK 21+ and to
+     * a bounded pool of platform threads on older JDKs.
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : AsyncExecutor.getDefault();
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // PRIVATE METHODS /////////////////////////////////////////////////////////
+    ////////////////////////////////////////////////////////////////////////////
+
+    private Connection openConnection() throws SQLException {
+        DriverManager.setLoginTimeout(15);
+        return DriverManager.getConnection(uri, username, password);
+    }
+
+    private void discard(Connection conn) {
+        destroy(conn);
+        synchronized (this) {
+            total--;
+            notifyAll();
+        }
+    }
+
+    private void destroy(Connection conn) {
+        StatementCache cache;
+        synchronized (this) {
+            cache = statementCaches.remove(conn);
+        }
+        if (cache != null) {
+            cache.close();
+        }
+        try { conn.close(); } catch (Exception ee) {;}
+    }
+
+    private static class PooledConnection {
+        private final Connection conn;
+        private final long lastUsed;
+
+        PooledConnection(Connection conn, long lastUsed) {
+            this.conn = conn;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import br.tec.cmc.facildb.dialect.Dialect;
+
+/**
+ * Position of a keyset (seek) page: the key columns the select is ordered
+ * by and the key values of the last row of the previous page.
+ *
+ * The next page is read with "where key > last" instead of an offset, so
+ * every page costs the same, however deep. The key columns must be not
+ * null and unique together, usually the primary key. A column followed
+ * by "desc" is read in descending order.
+ *
+ * <pre>
+ * Page page = db.select("id, title").from("book").page(Keyset.first("id"), 50);
+ * ...
+ * page = db.select("id, title").from("book").page(page.getNext(), 50);
+ * </pre>
+ */
+public final class Keyset {
+
+    private final String[] columns;
+    private final boolean[] descending;
+    private final Object[] values;
+
+    private Keyset(String keyColumns, Object[] values) {
+        String[] keys = SQLBuilder.split(keyColumns);
+        this.columns = new String[keys.length];
+        this.descending = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            String[] parts = keys[i].split("\\s+");
+            columns[i] = parts[0];
+            descending[i] = parts.length > 1 && parts[1].equalsIgnoreCase("desc");
+        }
+        if (values != null && values.length != columns.length) {
+            throw new IllegalArgumentException("Numero de valores diferente do numero de colunas chave: " + keyColumns);
+        }
+        this.values = values;
+    }
+
+    private Keyset(String[] columns, boolean[] descending, Object[] values) {
+        this.columns = columns;
+        this.descending = descending;
+        this.values = values;
+    }
+
+    /**
+     * First page, ordered by the key columns.
+     */
+    public static Keyset first(String keyColumns) {
+        return new Keyset(keyColumns, null);
+    }
+
+    /**
+     * Page after the row with the given key values. Without values it is
+     * the first page.
+     */
+    public static Keyset after(String keyColumns, Object... lastValues) {
+        return new Keyset(keyColumns, lastValues == null || lastValues.length == 0 ? null : lastValues.clone());
+    }
+
+    /**
+     * Page after the position of a token returned by Page.getToken(). A
+     * null or empty token is the first page.
+     */
+    public static Keyset fromToken(String keyColumns, String token) {
+        if (token == null || token.isEmpty()) {
+            return first(keyColumns);
+        }
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            JSONArray ar = new JSONArray(json);
+            Object[] values = new Object[ar.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = decode(ar.get(i));
+            }
+            return new Keyset(keyColumns, values);
+        } catch (IllegalArgumentException | JSONException e) {
+            throw new IllegalArgumentException("Token de paginacao invalido: " + token, e);
+        }
+    }
+
+    public boolean isFirst() {
+        return values == null;
+    }
+
+    /**
+     * Opaque text with the key values, to be sent to a client and given
+     * back to fromToken(). Each value keeps its type, and a timestamp its
+     * nanoseconds, so it is bound back exactly as it was read.
+     */
+    public String getToken() {
+        if (values == null) {
+            return null;
+        }
+        JSONArray ar = new JSONArray();
+        for (Object value: values) {
+            ar.put(encode(value));
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                     .encodeToString(ar.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Key values of the current row, read with the getter of the JDBC type
+     * of each column (from 1).
+     */
+    static Object[] readKey(ResultSet rs, int[] columns) throws SQLException {
+        ResultSetMetaData md = rs.getMetaData();
+        Object[] key = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            int column = columns[i];
+            switch (md.getColumnType(column)) {
+                case Types.TIMESTAMP:
+                    key[i] = rs.getTimestamp(column);
+                    break;
+                case Types.DATE:
+                    key[i] = rs.getDate(column);
+                    break;
+                case Types.TIME:
+                    key[i] = rs.getTime(column);
+                    break;
+                default:
+                    key[i] = rs.getObject(column);
+            }
+        }
+        return key;
+    }
+
+    private static Object encode(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return JSONObject.NULL;
+        }
+        JSONObject typed = new JSONObject();
+        if (value instanceof Timestamp) {
+            Timestamp ts = (Timestamp) value;
+            typed.put("t", "ts").put("v", ts.getTime()).put("n", ts.getNanos());
+        } else if (value instanceof java.sql.Date) {
+            typed.put("t", "date").put("v", value.toString());
+        } else if (value instanceof Time) {
+            typed.put("t", "time").put("v", value.toString());
+        } else if (value instanceof Long) {
+            typed.put("t", "l").put("v", value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            typed.put("t", "i").put("v", ((Number) value).intValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            typed.put("t", "d").put("v", ((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            typed.put("t", "n").put("v", value.toString());
+        } else if (value instanceof Boolean) {
+            typed.put("t", "b").put("v", value);
+        } else if (value instanceof UUID) {
+            typed.put("t", "u").put("v", value.toString());
+        } else if (value instanceof byte[]) {
+            typed.put("t", "x").put("v", Base64.getEncoder().encodeToString((byte[]) value));
+        } else {
+            typed.put("t", "s").put("v", value.toString());
+        }
+        return typed;
+    }
+
+    /**
+     * Typed value of a token. Tokens of older versions, with the plain
+     * values, are still accepted.
+     */
+    private static Object decode(Object item) {
+        if (item == JSONObject.NULL) {
+            return null;
+        }
+        if (!(item instanceof JSONObject)) {
+            return item;
+        }
+        JSONObject typed = (JSONObject) item;
+        String type = typed.getString("t");
+        switch (type) {
+            case "ts":
+                Timestamp ts = new Timestamp(typed.getLong("v"));
+                ts.setNanos(typed.getInt("n"));
+                return ts;
+            case "date":
+                return java.sql.Date.valueOf(typed.getString("v"));
+            case "time":
+                return Time.valueOf(typed.getString("v"));
+            case "l":
+                return typed.getLong("v");
+            case "i":
+                return typed.getInt("v");
+            case "d":
+                return typed.getDouble("v");
+            case "n":
+                return new BigDecimal(typed.getString("v"));
+            case "b":
+                return typed.getBoolean("v");
+            case "u":
+                return UUID.fromString(typed.getString("v"));
+            case "x":
+                return Base64.getDecoder().decode(typed.getString("v"));
+            case "s":
+                return typed.getString("v");
+            default:
+                throw new IllegalArgumentException("Tipo de valor desconhecido no token: " + type);
+        }
+    }
+
+    String[] getColumns() {
+        return columns.clone();
+    }
+
+    Keyset next(Object[] lastValues) {
+        return new Keyset(columns, descending, lastValues);
+    }
+
+    String orderBy() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(columns[i]);
+            if (descending[i]) {
+                sb.append(" desc");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Where predicate that skips the rows up to the last one, or null on
+     * the first page. Dialects with row value comparison get
+     * "(a, b) > (?, ?)" when all keys have the same direction, the others
+     * the expanded "a > ? or (a = ? and b > ?)".
+     */
+    String predicate(DataBaseType dbType) {
+        if (values == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("(");
+        if (columns.length == 1) {
+            sb.append(columns[0]).append(operator(0)).append("?");
+        } else if (rowValues(dbType)) {
+            sb.append("(");
+            for (int i = 0; i < columns.length; i++) {
+                sb.append(i > 0 ? ", " : "").append(columns[i]);
+            }
+            sb.append(")").append(operator(0)).append("(");
+            for (int i = 0; i < columns.length; i++) {
+                sb.append(i > 0 ? ", ?" : "?");
+            }
+            sb.append(")");
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sb.append(" or ");
+                }
+                sb.append("(");
+                for (int j = 0; j < i; j++) {
+                    sb.append(columns[j]).append(" = ? and ");
+                }
+                sb.append(columns[i]).append(operator(i)).append("?)");
+            }
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * Parameters of predicate(), in order.
+     */
+    List<Object> params(DataBaseType dbType) {
+        List<Object> params = new ArrayList<>();
+        if (values == null) {
+            return params;
+        }
+        if (columns.length == 1 || rowValues(dbType)) {
+            for (Object value: values) {
+                params.add(value);
+            }
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                for (int j = 0; j <= i; j++) {
+                    params.add(values[j]);
+                }
+            }
+        }
+        return params;
+    }
+
+    private String operator(int i) {
+        return descending[i] ? " < " : " > ";
+    }
+
+    private boolean rowValues(DataBaseType dbType) {
+        if (!Dialect.of(dbType).supportsRowValues()) {
+            return false;
+        }
+        for (boolean desc: descending) {
+            if (desc != descending[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, in the style of
+ * HdrHistogram: values below 32 have their own bucket and every power of
+ * two above is split in 16 buckets, so a percentile is off by at most
+ * 1/16 (6%) of the value. The buckets are a fixed AtomicLongArray of 960
+ * counters, and record() never allocates nor blocks.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = SUB_COUNT * 2;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Latency below which the percentile (0 to 100) of the values fall,
+     * rounded up to the top of its bucket and never above the max.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public double getValueAtPercentile(double percentile, TimeUnit unit) {
+        return (double) getValueAtPercentile(percentile) / unit.toNanos(1);
+    }
+
+    /**
+     * Clears the histogram. Values recorded while it runs may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                             getCount(), getMeanNanos() / 1e6,
+                             getValueAtPercentile(50, TimeUnit.MILLISECONDS),
+                             getValueAtPercentile(90, TimeUnit.MILLISECONDS),
+                             getValueAtPercentile(99, TimeUnit.MILLISECONDS),
+                             getMaxNanos() / 1e6);
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exp - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return LINEAR + (exp - SUB_BITS - 1) * SUB_COUNT + sub;
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int k = bucket - LINEAR;
+        int shift = k / SUB_COUNT + 1;
+        long sub = k % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import org.json.JSONArray;
+
+/**
+ * One page of a keyset select, returned by FacilDB.page().
+ */
+public final class Page {
+
+    private final JSONArray records;
+    private final Keyset next;
+
+    Page(JSONArray records, Keyset next) {
+        this.records = records;
+        this.next = next;
+    }
+
+    public JSONArray getRecords() {
+        return records;
+    }
+
+    public boolean hasMore() {
+        return next != null;
+    }
+
+    /**
+     * Position of the next page, or null on the last page.
+     */
+    public Keyset getNext() {
+        return next;
+    }
+
+    /**
+     * Continuation token of the next page, or null on the last page.
+     */
+    public String getToken() {
+        return next == null ? null : next.getToken();
+    }
+}
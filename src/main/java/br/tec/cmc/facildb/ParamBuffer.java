@@ -0,0 +1,454 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.json.JSONObject;
+
+import br.tec.cmc.facildb.util.DataType;
+import br.tec.cmc.facildb.util.DateUtil;
+
+/**
+ * Parameters of the next statement of a FacilDB.
+ *
+ * Each parameter keeps a kind that picks the JDBC setter. Numbers, booleans
+ * and dates are kept unboxed in a long array (doubles as their bits, dates
+ * as epoch milliseconds) and bound with setInt(), setLong(), setTimestamp()
+ * and so on, instead of setObject(). A java.util.Date is bound as a
+ * Timestamp. The arrays are reused by clear(), so a statement run in a loop
+ * does not allocate for its parameters.
+ */
+final class ParamBuffer {
+
+    private static final byte NULL = 0;
+    private static final byte OBJECT = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte STRING = 6;
+    private static final byte DECIMAL = 7;
+    private static final byte BYTES = 8;
+    private static final byte TIMESTAMP = 9;
+    private static final byte TIMESTAMP_MILLIS = 10;
+    private static final byte DATE_MILLIS = 11;
+    private static final byte TIME_MILLIS = 12;
+    private static final byte TYPED_NULL = 13;
+
+    private byte[] kinds = new byte[8];
+    private long[] longs = new long[8];
+    private Object[] objects = new Object[8];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(objects, 0, size, null);
+        size = 0;
+    }
+
+    void add(Object value) {
+        int k = next();
+        store(k, value);
+    }
+
+    /**
+     * Replaces the parameter at the index (from 0). An index past the end
+     * is reached by adding null parameters.
+     */
+    void set(int index, Object value) {
+        while (size <= index) {
+            next();
+        }
+        objects[index] = null;
+        store(index, value);
+    }
+
+    void addInt(int value) {
+        int k = next();
+        kinds[k] = INT;
+        longs[k] = value;
+    }
+
+    void addLong(long value) {
+        int k = next();
+        kinds[k] = LONG;
+        longs[k] = value;
+    }
+
+    void addDouble(double value) {
+        int k = next();
+        kinds[k] = DOUBLE;
+        longs[k] = Double.doubleToRawLongBits(value);
+    }
+
+    void addBoolean(boolean value) {
+        int k = next();
+        kinds[k] = BOOLEAN;
+        longs[k] = value ? 1 : 0;
+    }
+
+    void addString(String value) {
+        addObject(value == null ? NULL : STRING, value);
+    }
+
+    void addDecimal(BigDecimal value) {
+        addObject(value == null ? NULL : DECIMAL, value);
+    }
+
+    void addBytes(byte[] value) {
+        addObject(value == null ? NULL : BYTES, value);
+    }
+
+    void addTimestamp(long epochMillis) {
+        int k = next();
+        kinds[k] = TIMESTAMP_MILLIS;
+        longs[k] = epochMillis;
+    }
+
+    void addTimestamp(Timestamp value) {
+        addObject(value == null ? NULL : TIMESTAMP, value);
+    }
+
+    /**
+     * Adds the value converted to the type. A null value is bound with
+     * setNull() and the SQL type of the DataType. Dates, times and
+     * timestamps accept a java.util.Date, the java.time types and a String
+     * in the patterns of DateUtil.
+     */
+    void add(Object value, DataType type) {
+        if (value == null || value == JSONObject.NULL) {
+            if (type == DataType.OBJECT || type == DataType.ARRAY) {
+                next();
+            } else {
+                int k = next();
+                kinds[k] = TYPED_NULL;
+                longs[k] = sqlType(type);
+            }
+            return;
+        }
+        switch (type) {
+            case INTEGER:
+                addInt(((Number) value).intValue());
+                break;
+            case LONG:
+                addLong(((Number) value).longValue());
+                break;
+            case FLOAT:
+                addDouble(((Number) value).doubleValue());
+                break;
+            case DECIMAL:
+                addDecimal(value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString()));
+                break;
+            case BOOLEAN:
+            case BIT:
+                addBoolean(value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString()));
+                break;
+            case STRING:
+            case CHAR:
+            case CLOB:
+                addString(value.toString());
+                break;
+            case DATE:
+                addMillis(DATE_MILLIS, toDate(value, type).getTime());
+                break;
+            case TIME:
+                addMillis(TIME_MILLIS, toDate(value, type).getTime());
+                break;
+            case TIMESTAMP:
+                Date date = toDate(value, type);
+                if (date instanceof Timestamp) {
+                    addTimestamp((Timestamp) date);
+                } else {
+                    addTimestamp(date.getTime());
+                }
+                break;
+            default:
+                addObject(OBJECT, value);
+        }
+    }
+
+    /**
+     * The parameter at the index, boxed.
+     */
+    Object get(int index) {
+        long value = longs[index];
+        switch (kinds[index]) {
+            case NULL:
+            case TYPED_NULL:
+                return null;
+            case INT:
+                return (int) value;
+            case LONG:
+                return value;
+            case DOUBLE:
+                return Double.longBitsToDouble(value);
+            case BOOLEAN:
+                return value != 0;
+            case TIMESTAMP_MILLIS:
+                return new Timestamp(value);
+            case DATE_MILLIS:
+                return new java.sql.Date(value);
+            case TIME_MILLIS:
+                return new Time(value);
+            default:
+                return objects[index];
+        }
+    }
+
+    Object[] toArray() {
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Binds all parameters to the statement, from parameter 1.
+     */
+    void bind(PreparedStatement ps) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            bind(ps, i + 1, i);
+        }
+    }
+
+    private void bind(PreparedStatement ps, int index, int k) throws SQLException {
+        long value = longs[k];
+        switch (kinds[k]) {
+            case INT:
+                ps.setInt(index, (int) value);
+                break;
+            case LONG:
+                ps.setLong(index, value);
+                break;
+            case DOUBLE:
+                ps.setDouble(index, Double.longBitsToDouble(value));
+                break;
+            case BOOLEAN:
+                ps.setBoolean(index, value != 0);
+                break;
+            case STRING:
+                ps.setString(index, (String) objects[k]);
+                break;
+            case DECIMAL:
+                ps.setBigDecimal(index, (BigDecimal) objects[k]);
+                break;
+            case BYTES:
+                ps.setBytes(index, (byte[]) objects[k]);
+                break;
+            case TIMESTAMP:
+                ps.setTimestamp(index, (Timestamp) objects[k]);
+                break;
+            case TIMESTAMP_MILLIS:
+                ps.setTimestamp(index, new Timestamp(value));
+                break;
+            case DATE_MILLIS:
+                ps.setDate(index, new java.sql.Date(value));
+                break;
+            case TIME_MILLIS:
+                ps.setTime(index, new Time(value));
+                break;
+            case TYPED_NULL:
+                ps.setNull(index, (int) value);
+                break;
+            default:
+                ps.setObject(index, objects[k]);
+        }
+    }
+
+    /**
+     * Binds one value with the setter of its class, as add(Object) would.
+     * Used by the batch paths, which read the values from JSONObjects.
+     */
+    static void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+        if (value instanceof String) {
+            ps.setString(index, (String) value);
+        } else if (value instanceof Integer) {
+            ps.setInt(index, (Integer) value);
+        } else if (value instanceof Long) {
+            ps.setLong(index, (Long) value);
+        } else if (value instanceof Double) {
+            ps.setDouble(index, (Double) value);
+        } else if (value instanceof Boolean) {
+            ps.setBoolean(index, (Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            ps.setBigDecimal(index, (BigDecimal) value);
+        } else if (value instanceof Timestamp) {
+            ps.setTimestamp(index, (Timestamp) value);
+        } else if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof Time)) {
+            ps.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+        } else if (value instanceof byte[]) {
+            ps.setBytes(index, (byte[]) value);
+        } else {
+            ps.setObject(index, value);
+        }
+    }
+
+    /**
+     * java.sql.Types code of the DataType, VARCHAR for the types without
+     * one.
+     */
+    static int sqlType(DataType type) {
+        switch (type) {
+            case BOOLEAN:
+                return Types.BOOLEAN;
+            case CLOB:
+                return Types.CLOB;
+            case DATE:
+                return Types.DATE;
+            case DECIMAL:
+                return Types.DOUBLE;
+            case INTEGER:
+                return Types.INTEGER;
+            case LONG:
+                return Types.BIGINT;
+            case BIT:
+                return Types.BIT;
+            case CHAR:
+                return Types.CHAR;
+            case FLOAT:
+                return Types.FLOAT;
+            case TIME:
+                return Types.TIME;
+            case TIMESTAMP:
+                return Types.TIMESTAMP;
+            default:
+                return Types.VARCHAR;
+        }
+    }
+
+    /**
+     * The value as a java.util.Date. LocalDateTime, Instant and the
+     * offset types become a Timestamp, with their nanoseconds.
+     */
+    private static Date toDate(Object value, DataType type) {
+        if (value instanceof Date) {
+            return (Date) value;
+        } else if (value instanceof LocalDateTime) {
+            return Timestamp.valueOf((LocalDateTime) value);
+        } else if (value instanceof LocalDate) {
+            return java.sql.Date.valueOf((LocalDate) value);
+        } else if (value instanceof LocalTime) {
+            return Time.valueOf((LocalTime) value);
+        } else if (value instanceof Instant) {
+            return Timestamp.from((Instant) value);
+        } else if (value instanceof OffsetDateTime) {
+            return Timestamp.from(((OffsetDateTime) value).toInstant());
+        } else if (value instanceof ZonedDateTime) {
+            return Timestamp.from(((ZonedDateTime) value).toInstant());
+        } else if (value instanceof String) {
+            String text = ((String) value).trim();
+            try {
+                switch (text.length()) {
+                    case 8:
+                        return Time.valueOf(text);
+                    case 10:
+                        return DateUtil.stringToDate(text, DateUtil.PATTERN_DATE_ONLY);
+                    case 19:
+                        return DateUtil.stringToDate(text, DateUtil.PATTERN_DATE_HOUR);
+                    default:
+                        return DateUtil.stringToDate(text);
+                }
+            } catch (ParseException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Texto invalido para parametro " + type + ": " + text, e);
+            }
+        }
+        throw new IllegalArgumentException("Parametro " + type + " nao aceita valor do tipo " 
+                                           + value.getClass().getName());
+    }
+
+    private void store(int k, Object value) {
+        if (value == null) {
+            kinds[k] = NULL;
+        } else if (value instanceof String) {
+            kinds[k] = STRING;
+            objects[k] = value;
+        } else if (value instanceof Integer) {
+            kinds[k] = INT;
+            longs[k] = (Integer) value;
+        } else if (value instanceof Long) {
+            kinds[k] = LONG;
+            longs[k] = (Long) value;
+        } else if (value instanceof Double) {
+            kinds[k] = DOUBLE;
+            longs[k] = Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof Boolean) {
+            kinds[k] = BOOLEAN;
+            longs[k] = (Boolean) value ? 1 : 0;
+        } else if (value instanceof BigDecimal) {
+            kinds[k] = DECIMAL;
+            objects[k] = value;
+        } else if (value instanceof Timestamp) {
+            kinds[k] = TIMESTAMP;
+            objects[k] = value;
+        } else if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof Time)) {
+            kinds[k] = TIMESTAMP_MILLIS;
+            longs[k] = ((Date) value).getTime();
+        } else if (value instanceof byte[]) {
+            kinds[k] = BYTES;
+            objects[k] = value;
+        } else {
+            kinds[k] = OBJECT;
+            objects[k] = value;
+        }
+    }
+
+    private void addObject(byte kind, Object value) {
+        int k = next();
+        kinds[k] = kind;
+        objects[k] = value;
+    }
+
+    private void addMillis(byte kind, long millis) {
+        int k = next();
+        kinds[k] = kind;
+        longs[k] = millis;
+    }
+
+    private int next() {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            longs = Arrays.copyOf(longs, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        kinds[size] = NULL;
+        objects[size] = null;
+        return size++;
+    }
+}
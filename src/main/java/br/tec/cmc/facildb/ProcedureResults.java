@@ -0,0 +1,248 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.sql.CallableStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import br.tec.cmc.facildb.util.DateMode;
+
+/**
+ * Results of a stored procedure, read one at a time like a ResultSet.
+ *
+ * Each call to next() moves to the next result of the procedure, which is
+ * either a result set or an update count. The rows of a result set are
+ * read only when asked for, with the column labels of its own
+ * ResultSetMetaData, and the result set is closed by the following next().
+ *
+ * <pre>
+ * try (ProcedureResults results = db.call("sales_report(?)").param(2020).queryResults()) {
+ *     while (results.next()) {
+ *         if (results.isResultSet()) {
+ *             JSONArray rows = results.getRecords();
+ *         } else {
+ *             int count = results.getUpdateCount();
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * Some drivers (SQL Server) only return the out parameters after all the
+ * results were read.
+ */
+public final class ProcedureResults implements AutoCloseable {
+
+    private final CallableStatement statement;
+    private final DateMode dateMode;
+    private final QueryTrace trace;
+    private ResultSet rs;
+    private int updateCount = -1;
+    private int index = -1;
+    private boolean started;
+    private boolean finished;
+
+    ProcedureResults(CallableStatement statement, DateMode dateMode, QueryTrace trace) {
+        this.statement = statement;
+        this.dateMode = dateMode;
+        this.trace = trace;
+    }
+
+    /**
+     * Moves to the next result. Returns false when there are no more
+     * results. Errors of the procedure are thrown, not skipped.
+     */
+    public boolean next() throws SQLException {
+        if (finished) {
+            return false;
+        }
+        try {
+            closeResultSet();
+            boolean isResultSet;
+            if (started) {
+                isResultSet = statement.getMoreResults();
+            } else {
+                started = true;
+                isResultSet = statement.execute();
+                trace.executed();
+            }
+            if (isResultSet) {
+                rs = statement.getResultSet();
+                updateCount = -1;
+            } else {
+                updateCount = statement.getUpdateCount();
+                if (updateCount == -1) {
+                    finish();
+                    return false;
+                }
+                trace.fetched(updateCount, 0);
+            }
+            index++;
+            return true;
+        } catch (SQLException e) {
+            trace.failed(e);
+            finish();
+            throw e;
+        }
+    }
+
+    public boolean isResultSet() {
+        return rs != null;
+    }
+
+    /**
+     * Update count of the current result, or -1 when it is a result set.
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Position of the current result, starting at 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * The result set of the current result. It is closed by next().
+     */
+    public ResultSet getResultSet() throws SQLException {
+        return current();
+    }
+
+    /**
+     * Column labels of the current result set.
+     */
+    public String[] getColumns() throws SQLException {
+        ResultSetMetaData md = current().getMetaData();
+        String[] columns = new String[md.getColumnCount()];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = md.getColumnLabel(c + 1);
+        }
+        return columns;
+    }
+
+    /**
+     * Rows of the current result set, keyed by the column labels.
+     */
+    public JSONArray getRecords() throws SQLException {
+        return getRecords((String[]) null);
+    }
+
+    /**
+     * Rows of the current result set, keyed by the aliases, one per column.
+     */
+    public JSONArray getRecords(String aliases) throws SQLException {
+        return getRecords(SQLBuilder.split(aliases));
+    }
+
+    public JSONArray getRecords(String[] aliases) throws SQLException {
+        JSONArray records = new JSONArray();
+        addRecords(records, aliases);
+        return records;
+    }
+
+    /**
+     * Rows of the current result set as a lazy stream, read while it is
+     * consumed. The stream must be consumed before next().
+     */
+    public Stream<JSONObject> stream() throws SQLException {
+        ResultSet results = current();
+        ResultSetMapper mapper = mapper(results, null);
+        ResultSetSpliterator<JSONObject> spliterator = new ResultSetSpliterator<>(
+            results, 
+            mapper::map, 
+            () -> trace.fetched(mapper.getRows(), mapper.getBytes()));
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    public <T> List<T> query(Class<T> type) throws SQLException {
+        return query(new BeanRowMapper<>(type));
+    }
+
+    public <T> List<T> query(RowMapper<T> mapper) throws SQLException {
+        ResultSet results = current();
+        List<T> records = new ArrayList<>();
+        while (results.next()) {
+            records.add(mapper.map(results));
+        }
+        trace.fetched(records.size(), 0);
+        return records;
+    }
+
+    /**
+     * Closes the current result set. The statement belongs to the FacilDB
+     * and stays open for the out parameters.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            closeResultSet();
+        } finally {
+            finish();
+        }
+    }
+
+    void addRecords(JSONArray records, String[] aliases) throws SQLException {
+        ResultSet results = current();
+        if (!results.isBeforeFirst()) {
+            return;
+        }
+        ResultSetMapper mapper = mapper(results, aliases);
+        while (results.next()) {
+            records.put(mapper.map(results));
+        }
+        trace.fetched(mapper.getRows(), mapper.getBytes());
+    }
+
+    private ResultSetMapper mapper(ResultSet results, String[] aliases) throws SQLException {
+        ResultSetMapper mapper = new ResultSetMapper(results, aliases, dateMode);
+        if (trace.isActive()) {
+            mapper.measure();
+        }
+        return mapper;
+    }
+
+    private ResultSet current() throws SQLException {
+        if (rs == null) {
+            throw new SQLException("O resultado atual da procedure nao e um ResultSet.");
+        }
+        return rs;
+    }
+
+    private void closeResultSet() throws SQLException {
+        if (rs != null) {
+            ResultSet results = rs;
+            rs = null;
+            results.close();
+        }
+    }
+
+    private void finish() {
+        finished = true;
+        updateCount = -1;
+        trace.finish();
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import br.tec.cmc.facildb.dialect.Dialect;
+import br.tec.cmc.facildb.util.DateMode;
+
+/**
+ * Immutable select built with the same fluent methods of FacilDB.
+ *
+ * Every method returns a new Query, so a Query can be kept in a static
+ * constant and executed by many threads at once, each call with its own
+ * parameters and connection:
+ *
+ * <pre>
+ * static final Query BOOKS_BY_PUBLISHER = Query.select("id, title, author")
+ *                                              .from("book")
+ *                                              .where("publisher_id=?")
+ *                                              .orderBy("title");
+ *
+ * JSONArray books = db.query(BOOKS_BY_PUBLISHER, 1001L);
+ * </pre>
+ *
+ * The SQL text is generated once per DataBaseType and reused.
+ */
+public final class Query {
+
+    private final String sql;
+    private final String[] fields;
+    private final String[] aliases;
+    private final String schema;
+    private final String from;
+    private final String where;
+    private final String orderBy;
+    private final int maxResults;
+    private final int offset;
+    private final DateMode dateMode;
+
+    private final Map<DataBaseType, String> compiled = new ConcurrentHashMap<>();
+    private volatile String compiledGeneric;
+
+    private Query(String sql, String[] fields, String[] aliases, String schema,
+                  String from, String where, String orderBy, int maxResults, int offset,
+                  DateMode dateMode) {
+        this.sql = sql;
+        this.fields = fields;
+        this.aliases = aliases;
+        this.schema = schema;
+        this.from = from;
+        this.where = where;
+        this.orderBy = orderBy;
+        this.maxResults = maxResults;
+        this.offset = offset;
+        this.dateMode = dateMode;
+    }
+
+    public static Query select(String fields) {
+        return select(SQLBuilder.split(fields));
+    }
+
+    public static Query select(String[] fields) {
+        return new Query(null, fields.clone(), null, null, "", null, "", 0, 0, DateMode.TEXT);
+    }
+
+    /**
+     * Query with a hand written select. Without sqlAlias() the column labels
+     * of the result are used as the keys of the records.
+     */
+    public static Query sql(String sql) {
+        return new Query(sql, null, null, null, "", null, "", 0, 0, DateMode.TEXT);
+    }
+
+    public Query from(String from) {
+        return new Query(sql, fields, aliases, schema, from, where, orderBy, maxResults, offset, dateMode);
+    }
+
+    public Query where(String where) {
+        return new Query(sql, fields, aliases, schema, from, where, orderBy, maxResults, offset, dateMode);
+    }
+
+    public Query orderBy(String orderBy) {
+        return new Query(sql, fields, aliases, schema, from, where, orderBy, maxResults, offset, dateMode);
+    }
+
+    public Query maxResults(int maxResults) {
+        return new Query(sql, fields, aliases, schema, from, where, orderBy, maxResults, offset, dateMode);
+    }
+
+    public Query offset(int offset) {
+        return new Query(sql, fields, aliases, schema, from, where, orderBy, maxResults, offset, dateMode);
+    }
+
+    public Query schema(String schema) {
+        return new Query(sql, fields, aliases, schema, from, where, orderBy, maxResults, offset, dateMode);
+    }
+
+    public Query sqlAlias(String aliases) {
+        return sqlAlias(SQLBuilder.split(aliases));
+    }
+
+    public Query sqlAlias(String[] aliases) {
+        return new Query(sql, fields, aliases.clone(), schema, from, where, orderBy, maxResults, offset, dateMode);
+    }
+
+    /**
+     * How date and timestamp columns are put in the records.
+     */
+    public Query dateMode(DateMode dateMode) {
+        return new Query(sql, fields, aliases, schema, from, where, orderBy, maxResults, 
+                         offset, dateMode == null ? DateMode.TEXT : dateMode);
+    }
+
+    /**
+     * Returns the SQL text of this query for the database type.
+     */
+    public String compile(DataBaseType dbType) throws SQLException {
+        if (sql != null) {
+            return sql;
+        }
+        String text = dbType == null ? compiledGeneric : compiled.get(dbType);
+        if (text == null) {
+            text = SQLBuilder.select(dbType, fields, aliases, schema, from, where, orderBy, maxResults, offset);
+            if (dbType == null) {
+                compiledGeneric = text;
+            } else {
+                compiled.put(dbType, text);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Runs the query on any connection, with the fetch size of the Dialect.
+     * Safe to call from many threads, as
+     * long as each thread uses its own connection.
+     */
+    public JSONArray query(Connection conn, DataBaseType dbType, Object... params) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(compile(dbType), ResultSet.TYPE_FORWARD_ONLY,
+                                                          ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(Dialect.of(dbType).fetchSize(false));
+            return execute(ps, dbType, params);
+        }
+    }
+
+    public JSONArray query(FacilDB db, Object... params) throws SQLException {
+        return db.query(this, params);
+    }
+
+    public JSONArray query(FacilDataSource dataSource, Object... params) throws SQLException {
+        return dataSource.query(this, params);
+    }
+
+    /**
+     * Runs the query on the executor of the data source, on a connection
+     * borrowed for this call only.
+     */
+    public CompletableFuture<JSONArray> queryAsync(FacilDataSource dataSource, Object... params) {
+        return dataSource.queryAsync(this, params);
+    }
+
+    public JSONObject queryUnique(Connection conn, DataBaseType dbType, Object... params) throws SQLException {
+        JSONArray records = query(conn, dbType, params);
+        return records.length() > 0 ? records.getJSONObject(0) : new JSONObject();
+    }
+
+    public JSONObject queryUnique(FacilDB db, Object... params) throws SQLException {
+        return db.queryUnique(this, params);
+    }
+
+    JSONArray execute(PreparedStatement ps, DataBaseType dbType, Object[] params) throws SQLException {
+        return execute(ps, dbType, params, QueryTrace.INACTIVE);
+    }
+
+    JSONArray execute(PreparedStatement ps, DataBaseType dbType, Object[] params, QueryTrace trace) throws SQLException {
+        int i = 1;
+        for (Object value: params) {
+            ParamBuffer.bind(ps, i++, value);
+        }
+        JSONArray records = new JSONArray();
+        try (ResultSet rs = ps.executeQuery()) {
+            trace.executed();
+            ResultSetMapper mapper = new ResultSetMapper(rs, resultAliases(dbType), dateMode);
+            if (trace.isActive()) {
+                mapper.measure();
+            }
+            while (rs.next()) {
+                records.put(mapper.map(rs));
+            }
+            trace.fetched(mapper.getRows(), mapper.getBytes());
+        }
+        return records;
+    }
+
+    private String[] resultAliases(DataBaseType dbType) {
+        if (aliases != null || fields == null) {
+            return aliases;
+        }
+        return SQLBuilder.aliases(dbType, fields);
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.util.regex.Pattern;
+
+/**
+ * Timings and sizes of one statement run by FacilDB.
+ *
+ * Times are in nanoseconds. Prepare time is the time to get the statement,
+ * from the StatementCache or the driver; execute time runs from binding the
+ * parameters to the end of executeQuery() or executeUpdate(); fetch time is
+ * the time spent reading and mapping the rows. For updates and batches the
+ * rows are the update counts.
+ */
+public final class QueryEvent {
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAM_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final SQLCommand operation;
+    private final String sql;
+    private final int binds;
+    private final long prepareNanos;
+    private final long executeNanos;
+    private final long fetchNanos;
+    private final long rows;
+    private final long bytes;
+    private final Throwable error;
+    private String shape;
+
+    QueryEvent(SQLCommand operation, String sql, int binds, long prepareNanos, long executeNanos,
+               long fetchNanos, long rows, long bytes, Throwable error) {
+        this.operation = operation;
+        this.sql = sql;
+        this.binds = binds;
+        this.prepareNanos = prepareNanos;
+        this.executeNanos = executeNanos;
+        this.fetchNanos = fetchNanos;
+        this.rows = rows;
+        this.bytes = bytes;
+        this.error = error;
+    }
+
+    public SQLCommand getOperation() {
+        return operation;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * The SQL with literals and parameter lists replaced by one "?" and the
+     * blanks collapsed, so selects that differ only in their values group
+     * together.
+     */
+    public String getShape() {
+        if (shape == null && sql != null) {
+            String text = STRING_LITERAL.matcher(sql).replaceAll("?");
+            text = NUMBER_LITERAL.matcher(text).replaceAll("?");
+            text = PARAM_LIST.matcher(text).replaceAll("?");
+            shape = SPACES.matcher(text).replaceAll(" ").trim();
+        }
+        return shape;
+    }
+
+    /**
+     * Number of bind parameters of the statement.
+     */
+    public int getBinds() {
+        return binds;
+    }
+
+    public long getPrepareNanos() {
+        return prepareNanos;
+    }
+
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    public long getTotalNanos() {
+        return prepareNanos + executeNanos + fetchNanos;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Approximate size of the values mapped from the rows: two bytes per
+     * character of text and eight per number, date or boolean.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * The exception that failed the statement, or null.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %.3f ms (prepare %.3f, execute %.3f, fetch %.3f) rows=%d binds=%d: %s",
+                             operation, getTotalNanos() / 1e6, prepareNanos / 1e6, executeNanos / 1e6,
+                             fetchNanos / 1e6, rows, binds, getShape());
+    }
+}
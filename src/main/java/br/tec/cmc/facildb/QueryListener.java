@@ -0,0 +1,30 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+/**
+ * Notified after every statement run by FacilDB, with its timings and row
+ * count. Register on one FacilDB with addQueryListener() or on all of them
+ * with FacilDB.addGlobalQueryListener().
+ *
+ * Listeners run on the thread of the query, so they must be quick; an
+ * exception thrown by a listener is logged and does not fail the query.
+ */
+@FunctionalInterface
+public interface QueryListener {
+
+    void onQuery(QueryEvent event);
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Times one statement of FacilDB and hands its QueryEvent to the listeners.
+ *
+ * The query paths call prepared(), executed() and fetched() as each phase
+ * ends and finish() in their finally block. Without listeners the shared
+ * INACTIVE trace is used and none of these read the clock.
+ */
+final class QueryTrace {
+
+    static final QueryTrace INACTIVE = new QueryTrace(null, null, null, null, 0);
+
+    private static final int PREPARE = 0;
+    private static final int EXECUTE = 1;
+    private static final int FETCH = 2;
+    private static final int DONE = 3;
+
+    private static final Logger LOGGER = Logger.getLogger(QueryTrace.class.getName());
+
+    private final List<QueryListener> local;
+    private final List<QueryListener> global;
+    private final SQLCommand operation;
+    private final String sql;
+    private final int binds;
+    private long mark;
+    private long prepareNanos;
+    private long executeNanos;
+    private long fetchNanos;
+    private long rows;
+    private long bytes;
+    private Throwable error;
+    private int phase;
+    private boolean finished;
+
+    private QueryTrace(List<QueryListener> local, List<QueryListener> global, SQLCommand operation,
+                       String sql, int binds) {
+        this.local = local;
+        this.global = global;
+        this.operation = operation;
+        this.sql = sql;
+        this.binds = binds;
+        this.mark = System.nanoTime();
+    }
+
+    static QueryTrace start(List<QueryListener> local, List<QueryListener> global, SQLCommand operation,
+                            String sql, int binds) {
+        if (local.isEmpty() && global.isEmpty()) {
+            return INACTIVE;
+        }
+        return new QueryTrace(local, global, operation, sql, binds);
+    }
+
+    boolean isActive() {
+        return this != INACTIVE;
+    }
+
+    void prepared() {
+        if (this != INACTIVE) {
+            prepareNanos += lap();
+            phase = EXECUTE;
+        }
+    }
+
+    void executed() {
+        if (this != INACTIVE) {
+            executeNanos += lap();
+            phase = FETCH;
+        }
+    }
+
+    void fetched(long rows, long bytes) {
+        if (this != INACTIVE) {
+            fetchNanos += lap();
+            phase = DONE;
+            this.rows += rows;
+            this.bytes += bytes;
+        }
+    }
+
+    /**
+     * End of an insert, update, delete or batch, with its update count.
+     */
+    void updated(long rows) {
+        if (this != INACTIVE) {
+            executeNanos += lap();
+            phase = DONE;
+            this.rows += rows;
+        }
+    }
+
+    void failed(Throwable error) {
+        if (this != INACTIVE) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * Sends the event once. Time since the last phase ended, e.g. when the
+     * statement failed, is counted in the phase that was running.
+     */
+    void finish() {
+        if (this == INACTIVE || finished) {
+            return;
+        }
+        finished = true;
+        long rest = lap();
+        if (phase == PREPARE) {
+            prepareNanos += rest;
+        } else if (phase == EXECUTE) {
+            executeNanos += rest;
+        } else {
+            fetchNanos += rest;
+        }
+        QueryEvent event = new QueryEvent(operation, sql, binds, prepareNanos, executeNanos,
+                                          fetchNanos, rows, bytes, error);
+        notify(local, event);
+        notify(global, event);
+    }
+
+    private long lap() {
+        long now = System.nanoTime();
+        long elapsed = now - mark;
+        mark = now;
+        return elapsed;
+    }
+
+    private static void notify(List<QueryListener> listeners, QueryEvent event) {
+        for (QueryListener listener: listeners) {
+            try {
+                listener.onQuery(event);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "QueryListener falhou: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.json.JSONObject;
+
+import br.tec.cmc.facildb.util.DateMode;
+import br.tec.cmc.facildb.util.DateUtil;
+
+/**
+ * Maps the rows of one ResultSet to JSONObjects.
+ *
+ * The SQL aliases are resolved to column indexes once, from the
+ * ResultSetMetaData, together with the conversion used for each column,
+ * so the row loop reads every cell by index.
+ *
+ * Dates are written in the DateMode of the mapper. In TEXT mode they are
+ * formatted into a buffer of the mapper, and write() copies that buffer to
+ * the writer without creating a String.
+ */
+final class ResultSetMapper {
+
+    private static final int OBJECT = 0;
+    private static final int DATE = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int CLOB = 3;
+
+    private final String[] aliases;
+    private final int[] indexes;
+    private final int[] kinds;
+    private final DateMode dateMode;
+    private final TimeZone zone = TimeZone.getDefault();
+    private final char[] buffer = new char[DateUtil.DATE_HOUR_MILISECONDS_LENGTH];
+    private boolean measuring;
+    private long rows;
+    private long bytes;
+
+    ResultSetMapper(ResultSet rs, String[] aliases) throws SQLException {
+        this(rs, aliases, DateMode.TEXT);
+    }
+
+    ResultSetMapper(ResultSet rs, String[] aliases, DateMode dateMode) throws SQLException {
+        this.dateMode = dateMode == null ? DateMode.TEXT : dateMode;
+        ResultSetMetaData md = rs.getMetaData();
+        int count = md.getColumnCount();
+        if (aliases == null) {
+            aliases = new String[count];
+            for (int c = 0; c < count; c++) {
+                aliases[c] = md.getColumnLabel(c + 1);
+            }
+        }
+        this.aliases = aliases;
+        this.indexes = new int[aliases.length];
+        this.kinds = new int[aliases.length];
+        for (int i = 0; i < aliases.length; i++) {
+            int index = columnIndex(md, count, aliases[i]);
+            if (index == 0) {
+                index = rs.findColumn(aliases[i]);
+            }
+            indexes[i] = index;
+            kinds[i] = kind(md.getColumnType(index));
+        }
+    }
+
+    JSONObject map(ResultSet rs) throws SQLException {
+        JSONObject jsObj = new JSONObject();
+        for (int i = 0; i < aliases.length; i++) {
+            Object value = read(rs, i);
+            if (measuring) {
+                bytes += size(value);
+            }
+            jsObj.put(aliases[i], value == null ? JSONObject.NULL : value);
+        }
+        rows++;
+        return jsObj;
+    }
+
+    /**
+     * Writes the current row as a JSON object, with the same values map()
+     * would put in the JSONObject, without building the JSONObject.
+     */
+    void write(ResultSet rs, Writer writer) throws SQLException, IOException {
+        writer.write('{');
+        for (int i = 0; i < aliases.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            JSONObject.quote(aliases[i], writer);
+            writer.write(':');
+            if (dateMode == DateMode.TEXT && (kinds[i] == DATE || kinds[i] == TIMESTAMP)) {
+                writeDate(rs, i, writer);
+                if (measuring) {
+                    bytes += 8;
+                }
+                continue;
+            }
+            Object value = read(rs, i);
+            if (measuring) {
+                bytes += size(value);
+            }
+            if (value instanceof String) {
+                JSONObject.quote((String)value, writer);
+            } else {
+                writer.write(JSONObject.valueToString(value));
+            }
+        }
+        writer.write('}');
+        rows++;
+    }
+
+    /**
+     * Makes map() and write() add up the approximate size of the values,
+     * read by getBytes().
+     */
+    void measure() {
+        measuring = true;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    String[] getAliases() {
+        return aliases;
+    }
+
+    Object read(ResultSet rs, int i) throws SQLException {
+        int index = indexes[i];
+        switch (kinds[i]) {
+            case DATE:
+                return date(rs.getDate(index));
+            case TIMESTAMP:
+                return date(rs.getTimestamp(index));
+            case CLOB:
+                return rs.getString(index);
+            default:
+                Object value = rs.getObject(index);
+                if (value instanceof java.sql.Date || value instanceof java.sql.Timestamp) {
+                    return date((Date)value);
+                } else if (value instanceof java.sql.Clob) {
+                    return rs.getString(index);
+                }
+                return value;
+        }
+    }
+
+    private Object date(Date date) {
+        if (date == null) {
+            return null;
+        }
+        switch (dateMode) {
+            case EPOCH_MILLIS:
+                return date.getTime();
+            case ISO_8601:
+                return DateUtil.dateToIso8601(date);
+            default:
+                if (DateUtil.formatDateHourMiliseconds(date.getTime(), zone, buffer, 0)) {
+                    return new String(buffer);
+                }
+                return DateUtil.dateToString(date, DateUtil.PATTERN_DATE_HOUR_MILISECONDS);
+        }
+    }
+
+    private void writeDate(ResultSet rs, int i, Writer writer) throws SQLException, IOException {
+        Date date = kinds[i] == DATE ? rs.getDate(indexes[i]) : rs.getTimestamp(indexes[i]);
+        if (date == null) {
+            writer.write("null");
+        } else if (DateUtil.formatDateHourMiliseconds(date.getTime(), zone, buffer, 0)) {
+            writer.write('"');
+            writer.write(buffer, 0, buffer.length);
+            writer.write('"');
+        } else {
+            JSONObject.quote(DateUtil.dateToString(date, DateUtil.PATTERN_DATE_HOUR_MILISECONDS), writer);
+        }
+    }
+
+    private static long size(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 2L * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        return 8;
+    }
+
+    private static int columnIndex(ResultSetMetaData md, int count, String alias) throws SQLException {
+        int found = 0;
+        for (int c = 1; c <= count; c++) {
+            String label = md.getColumnLabel(c);
+            if (alias.equals(label)) {
+                return c;
+            }
+            if (found == 0 && alias.equalsIgnoreCase(label)) {
+                found = c;
+            }
+        }
+        return found;
+    }
+
+    private static int kind(int sqlType) {
+        switch (sqlType) {
+            case Types.DATE:
+                return DATE;
+            case Types.TIMESTAMP:
+                return TIMESTAMP;
+            case Types.CLOB:
+            case Types.NCLOB:
+                return CLOB;
+            default:
+                return OBJECT;
+        }
+    }
+}
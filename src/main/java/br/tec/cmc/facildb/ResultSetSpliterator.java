@@ -0,0 +1,79 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Reads the rows of a ResultSet lazily, one row per tryAdvance().
+ * The closer runs once, when the rows are exhausted or the stream is closed.
+ */
+class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    interface Closer {
+        void close() throws SQLException;
+    }
+
+    private final ResultSet rs;
+    private final RowReader<T> reader;
+    private final Closer closer;
+    private boolean closed;
+
+    ResultSetSpliterator(ResultSet rs, RowReader<T> reader, Closer closer) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.rs = rs;
+        this.reader = reader;
+        this.closer = closer;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (!rs.next()) {
+                close();
+                return false;
+            }
+            action.accept(reader.read(rs));
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            closer.close();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import br.tec.cmc.facildb.dialect.Dialect;
+
+/**
+ * Builds the SQL text of the fluent API. Stateless, shared by FacilDB and
+ * Query.
+ *
+ * The database differences come from the Dialect of the DataBaseType.
+ * The generated selects and the split field lists are memoized, so a
+ * repeated query shape skips the string building. When a cache reaches
+ * CACHE_SIZE entries it is cleared.
+ */
+final class SQLBuilder {
+
+    static final int CACHE_SIZE = 2048;
+
+    private static final Map<SelectKey, String> SELECTS = new ConcurrentHashMap<>();
+    private static final Map<String, String[]> SPLITS = new ConcurrentHashMap<>();
+
+    private SQLBuilder() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    static String[] aliases(DataBaseType dbType, String[] fields) {
+        String[] aliases = new String[fields.length];
+        int m = 0;
+        for (String name: fields) {
+            if (dbType == DataBaseType.PERVASIVE_PSQL) {
+                name = name.replace("\\.", "_");
+            }
+            aliases[m++] = name;
+        }
+        return aliases;
+    }
+
+    static String[] split(String values) {
+        String[] parts = SPLITS.get(values);
+        if (parts == null) {
+            parts = splitValues(values);
+            if (SPLITS.size() >= CACHE_SIZE) {
+                SPLITS.clear();
+            }
+            SPLITS.put(values, parts);
+        }
+        return parts.clone();
+    }
+
+    static String select(DataBaseType dbType, String[] fields, String[] aliases, String schema,
+                         String from, String where, String orderBy, int maxResults, 
+                         int offset) throws SQLException {
+        SelectKey key = new SelectKey(dbType, fields, aliases, schema, from, where, orderBy, maxResults, offset);
+        String sql = SELECTS.get(key);
+        if (sql == null) {
+            sql = buildSelect(dbType, fields, aliases, schema, from, where, orderBy, maxResults, offset);
+            if (SELECTS.size() >= CACHE_SIZE) {
+                SELECTS.clear();
+            }
+            SELECTS.put(key.copy(), sql);
+        }
+        return sql;
+    }
+
+    private static String[] splitValues(String values) {
+        String[] parts = values.split(",");
+        for (int i=0; i<parts.length; i++) {
+            parts[i] = parts[i].trim();
+        }
+        return parts;
+    }
+
+    private static String buildSelect(DataBaseType dbType, String[] fields, String[] aliases, String schema,
+                                      String from, String where, String orderBy, int maxResults, 
+                                      int offset) throws SQLException {
+        Dialect dialect = Dialect.of(dbType);
+        StringBuilder sql = new StringBuilder();
+        sql.append("\r\nselect ");
+        dialect.selectPrefix(sql, maxResults, offset);
+        if (aliases == null) {
+            aliases = aliases(dbType, fields);
+        }
+        if (fields.length != aliases.length) {
+            throw new SQLException("Numero de campos informados diferente do numero de SQL Aliases");
+        }
+        int i=0;
+        for (String field: fields) {
+            sql.append(dialect.alias(field, aliases[i++])).append(",");
+        }
+        sql.deleteCharAt(sql.length()-1);
+        if (from != null && !from.isEmpty()) {
+            sql.append("\r\n   from ");
+            if (schema != null && !schema.isEmpty()) {
+                sql.append(dialect.quote(schema)).append(".");
+            }
+            sql.append(from)
+               .append("\r\n");
+        } else {
+            throw new SQLException ("Nao foi informado o FROM para o SELECT.");
+        }
+        if (where != null && !where.isEmpty()) {
+            String wh = where.toLowerCase().trim();
+            if (!wh.startsWith("join") &&
+                !wh.startsWith("inner") &&
+                !wh.startsWith("group")) {
+                sql.append("   where ");
+            }
+            sql.append(where);
+        }
+        sql.append("\r\n");
+        boolean ordered = orderBy != null && !orderBy.isEmpty();
+        if (ordered) {
+            sql.append("   order by ")
+               .append(orderBy)
+               .append("\r\n");
+        }
+        dialect.selectSuffix(sql, ordered, maxResults, offset);
+        sql.append(dialect.hint());
+        return dialect.wrap(sql.toString(), maxResults, offset);
+    }
+
+    /**
+     * Shape of a select: everything that changes its SQL text.
+     */
+    private static final class SelectKey {
+        private final DataBaseType dbType;
+        private final String[] fields;
+        private final String[] aliases;
+        private final String schema;
+        private final String from;
+        private final String where;
+        private final String orderBy;
+        private final int maxResults;
+        private final int offset;
+        private final int hash;
+
+        SelectKey(DataBaseType dbType, String[] fields, String[] aliases, String schema,
+                  String from, String where, String orderBy, int maxResults, int offset) {
+            this.dbType = dbType;
+            this.fields = fields;
+            this.aliases = aliases;
+            this.schema = schema;
+            this.from = from;
+            this.where = where;
+            this.orderBy = orderBy;
+            this.maxResults = maxResults;
+            this.offset = offset;
+            int h = Objects.hashCode(dbType);
+            h = 31 * h + Arrays.hashCode(fields);
+            h = 31 * h + Arrays.hashCode(aliases);
+            h = 31 * h + Objects.hashCode(schema);
+            h = 31 * h + Objects.hashCode(from);
+            h = 31 * h + Objects.hashCode(where);
+            h = 31 * h + Objects.hashCode(orderBy);
+            h = 31 * h + maxResults;
+            this.hash = 31 * h + offset;
+        }
+
+        /**
+         * Copy that does not share the arrays of the caller, used as the
+         * key stored in the cache.
+         */
+        SelectKey copy() {
+            return new SelectKey(dbType, fields.clone(), aliases == null ? null : aliases.clone(), 
+                                 schema, from, where, orderBy, maxResults, offset);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SelectKey)) {
+                return false;
+            }
+            SelectKey other = (SelectKey) obj;
+            return hash == other.hash &&
+                   maxResults == other.maxResults &&
+                   offset == other.offset &&
+                   dbType == other.dbType &&
+                   Arrays.equals(fields, other.fields) &&
+                   Arrays.equals(aliases, other.aliases) &&
+                   Objects.equals(schema, other.schema) &&
+                   Objects.equals(from, other.from) &&
+                   Objects.equals(where, other.where) &&
+                   Objects.equals(orderBy, other.orderBy);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * QueryListener that logs, with java.util.logging, every statement slower
+ * than the threshold, and keeps a LatencyHistogram of all statements and
+ * one per SQL shape (see QueryEvent.getShape()).
+ *
+ * <pre>
+ * SlowQueryLog slow = new SlowQueryLog(500);
+ * FacilDB.addGlobalQueryListener(slow);
+ * ...
+ * System.out.println(slow.getHistogram());
+ * </pre>
+ *
+ * At most maxShapes shapes get their own histogram; the others only count
+ * in the overall one.
+ */
+public class SlowQueryLog implements QueryListener {
+
+    public static final int DEFAULT_MAX_SHAPES = 1000;
+
+    private final Logger logger;
+    private final int maxShapes;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> shapes = new ConcurrentHashMap<>();
+    private volatile long thresholdNanos;
+
+    public SlowQueryLog(long thresholdMillis) {
+        this(thresholdMillis, Logger.getLogger(SlowQueryLog.class.getName()), DEFAULT_MAX_SHAPES);
+    }
+
+    public SlowQueryLog(long thresholdMillis, Logger logger, int maxShapes) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.logger = logger;
+        this.maxShapes = maxShapes;
+    }
+
+    @Override
+    public void onQuery(QueryEvent event) {
+        long nanos = event.getTotalNanos();
+        histogram.record(nanos);
+        String shape = event.getShape();
+        if (shape != null) {
+            LatencyHistogram byShape = shapes.get(shape);
+            if (byShape == null && shapes.size() < maxShapes) {
+                byShape = shapes.computeIfAbsent(shape, s -> new LatencyHistogram());
+            }
+            if (byShape != null) {
+                byShape.record(nanos);
+            }
+        }
+        if (nanos >= thresholdNanos && logger.isLoggable(Level.WARNING)) {
+            logger.warning("Query lenta: " + event);
+        }
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    public void setThresholdMillis(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Latencies of all statements.
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Latencies of the statements with the shape, or null.
+     */
+    public LatencyHistogram getHistogram(String shape) {
+        return shapes.get(shape);
+    }
+
+    public Map<String, LatencyHistogram> getShapes() {
+        return new HashMap<>(shapes);
+    }
+
+    public void reset() {
+        histogram.reset();
+        shapes.clear();
+    }
+}
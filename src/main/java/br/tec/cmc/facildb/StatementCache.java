@@ -0,0 +1,180 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.Map;
+
+/**
+ * LRU cache of prepared statements of one connection, keyed by SQL text.
+ *
+ * A statement is taken out of the cache while in use and put back on
+ * release(), so two open cursors never share the same statement.
+ *
+ * Stored procedure calls are cached too, keyed by the call text. JDBC has
+ * no way to unregister an out parameter, so a CallableStatement with out
+ * parameters is closed on release() instead of cached: a later call of the
+ * same text without them must not send them.
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_SIZE = 32;
+
+    private final Connection conn;
+    private int maxSize;
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<PreparedStatement, String> borrowed = new IdentityHashMap<>();
+    private final Map<PreparedStatement, Map<Integer, Integer>> outParameters = new IdentityHashMap<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public StatementCache(Connection conn) {
+        this(conn, DEFAULT_SIZE);
+    }
+
+    public StatementCache(Connection conn, int maxSize) {
+        this.conn = conn;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a cached statement for the SQL or prepares a new one.
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.remove(sql);
+        if (ps != null) {
+            hits++;
+        } else {
+            misses++;
+            ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+        borrowed.put(ps, sql);
+        return ps;
+    }
+
+    /**
+     * Returns a cached CallableStatement for the call text, e.g.
+     * "{call proc(?, ?)}", or prepares a new one.
+     */
+    public synchronized CallableStatement prepareCall(String call) throws SQLException {
+        PreparedStatement ps = statements.remove(call);
+        if (ps instanceof CallableStatement) {
+            hits++;
+        } else {
+            if (ps != null) {
+                discard(ps);
+            }
+            misses++;
+            ps = conn.prepareCall(call);
+        }
+        borrowed.put(ps, call);
+        return (CallableStatement) ps;
+    }
+
+    /**
+     * Registers the out parameter on the statement, unless it was already
+     * registered with the same type since the statement was borrowed.
+     */
+    public synchronized void registerOutParameter(CallableStatement cs, int index, int sqlType) throws SQLException {
+        Map<Integer, Integer> registered = outParameters.computeIfAbsent(cs, k -> new TreeMap<>());
+        Integer previous = registered.get(index);
+        if (previous == null || previous != sqlType) {
+            cs.registerOutParameter(index, sqlType);
+            registered.put(index, sqlType);
+        }
+    }
+
+    /**
+     * Gives the statement back to the cache. Statements not prepared by
+     * this cache, that do not fit in it or with out parameters registered
+     * are closed.
+     */
+    public synchronized void release(PreparedStatement ps) throws SQLException {
+        if (ps == null) {
+            return;
+        }
+        String sql = borrowed.remove(ps);
+        if (sql == null || maxSize <= 0 || statements.containsKey(sql) || outParameters.containsKey(ps) 
+            || ps.isClosed()) {
+            discard(ps);
+            return;
+        }
+        ps.clearParameters();
+        statements.put(sql, ps);
+        evict();
+    }
+
+    /**
+     * Closes all cached statements. The cache stays usable, so this also
+     * drops the statements prepared before a DDL.
+     */
+    public synchronized void close() {
+        for (PreparedStatement ps : statements.values()) {
+            try { ps.close(); } catch (Exception ee) {;}
+        }
+        statements.clear();
+        outParameters.clear();
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void evict() {
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            PreparedStatement eldest = it.next();
+            it.remove();
+            evictions++;
+            try { discard(eldest); } catch (Exception ee) {;}
+        }
+    }
+
+    private void discard(PreparedStatement ps) throws SQLException {
+        outParameters.remove(ps);
+        ps.close();
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.dialect;
+
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import br.tec.cmc.facildb.DataBaseType;
+
+/**
+ * SQL differences between the databases: row limit and offset, identifier
+ * quoting, column alias syntax, statement hints and the default fetch
+ * size of the selects.
+ *
+ * The select is generated in the order: "select " + selectPrefix() +
+ * fields + from + where + order by + selectSuffix() + hint(), and the
+ * result goes through wrap(). This base class is the SQL:2008 dialect,
+ * with "offset n rows fetch first n rows only", used when the database
+ * type is not known.
+ *
+ * Another dialect can be plugged in with register(), to change how the
+ * selects of a database type are generated. Register it at startup:
+ * selects already generated are memoized by FacilDB and Query.
+ */
+public class Dialect {
+
+    private static final Dialect ANSI = new Dialect();
+    private static final Map<DataBaseType, Dialect> DIALECTS = new EnumMap<>(DataBaseType.class);
+
+    static {
+        DIALECTS.put(DataBaseType.H2, new LimitOffsetDialect(false));
+        DIALECTS.put(DataBaseType.POSTGRESQL, new PostgreSQLDialect());
+        DIALECTS.put(DataBaseType.MYSQL, new LimitOffsetDialect(true));
+        DIALECTS.put(DataBaseType.ORACLE, new OracleDialect());
+        DIALECTS.put(DataBaseType.FIREBIRD, new FirebirdDialect());
+        DIALECTS.put(DataBaseType.MSSQL, new SQLServerDialect());
+        DIALECTS.put(DataBaseType.MSSQL_JTDS, new SQLServerDialect());
+        DIALECTS.put(DataBaseType.PROGRESS, new ProgressDialect());
+        DIALECTS.put(DataBaseType.PERVASIVE_PSQL, new PervasiveDialect());
+    }
+
+    protected Dialect() {
+        // Dialeto SQL:2008
+    }
+
+    /**
+     * Dialect of the database type, or the SQL:2008 dialect for null.
+     */
+    public static Dialect of(DataBaseType dbType) {
+        if (dbType == null) {
+            return ANSI;
+        }
+        synchronized (DIALECTS) {
+            Dialect dialect = DIALECTS.get(dbType);
+            return dialect == null ? ANSI : dialect;
+        }
+    }
+
+    public static void register(DataBaseType dbType, Dialect dialect) {
+        synchronized (DIALECTS) {
+            DIALECTS.put(dbType, dialect);
+        }
+    }
+
+    /**
+     * Text after "select ", before the fields. Used for "top n" and
+     * "first n skip m".
+     */
+    public void selectPrefix(StringBuilder sql, int maxResults, int offset) throws SQLException {
+        // Nada antes dos campos
+    }
+
+    /**
+     * Text after the order by. ordered tells whether the select has an
+     * order by.
+     */
+    public void selectSuffix(StringBuilder sql, boolean ordered, int maxResults, int offset) throws SQLException {
+        if (offset > 0) {
+            sql.append("    offset ").append(offset).append(" rows\r\n");
+        }
+        if (maxResults > 0) {
+            sql.append("    fetch first ").append(maxResults).append(" rows only\r\n");
+        }
+    }
+
+    /**
+     * Last step of the select, for databases that limit rows with a
+     * subquery.
+     */
+    public String wrap(String sql, int maxResults, int offset) throws SQLException {
+        return sql;
+    }
+
+    /**
+     * Hint appended to every select, after the row limit.
+     */
+    public String hint() {
+        return "";
+    }
+
+    public String quote(String identifier) {
+        return "\"" + identifier + "\"";
+    }
+
+    /**
+     * Field with its alias in the select list.
+     */
+    public String alias(String field, String alias) {
+        return field + " \"" + alias + "\"";
+    }
+
+    /**
+     * Fetch size used when neither the query nor the FacilDB set one.
+     * streaming is true for queryStream() and queryTo(), which read the
+     * rows one at a time and should not have the driver buffer them all.
+     * 0 keeps the driver default.
+     */
+    public int fetchSize(boolean streaming) {
+        return 0;
+    }
+
+    /**
+     * True when the driver only fetches in batches inside a transaction,
+     * as PostgreSQL. Streaming selects then turn autocommit off while the
+     * rows are read.
+     */
+    public boolean cursorNeedsTransaction() {
+        return false;
+    }
+
+    /**
+     * True when "(a, b) > (?, ?)" is supported.
+     */
+    public boolean supportsRowValues() {
+        return false;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.dialect;
+
+/**
+ * "limit n offset m" of PostgreSQL, H2 and MySQL. MySQL needs a limit
+ * before an offset, quotes identifiers with backticks and streams rows
+ * only with a fetch size of Integer.MIN_VALUE.
+ */
+class LimitOffsetDialect extends Dialect {
+
+    private static final String MYSQL_NO_LIMIT = "18446744073709551615";
+
+    private final boolean mysql;
+
+    LimitOffsetDialect(boolean mysql) {
+        this.mysql = mysql;
+    }
+
+    @Override
+    public void selectSuffix(StringBuilder sql, boolean ordered, int maxResults, int offset) {
+        if (maxResults > 0) {
+            sql.append("    limit ").append(maxResults).append("\r\n");
+        } else if (offset > 0 && mysql) {
+            sql.append("    limit ").append(MYSQL_NO_LIMIT).append("\r\n");
+        }
+        if (offset > 0) {
+            sql.append("    offset ").append(offset).append("\r\n");
+        }
+    }
+
+    @Override
+    public String quote(String identifier) {
+        return mysql ? "`" + identifier + "`" : super.quote(identifier);
+    }
+
+    @Override
+    public String alias(String field, String alias) {
+        return mysql ? super.alias(field, alias) : field + " as \"" + alias + "\"";
+    }
+
+    @Override
+    public int fetchSize(boolean streaming) {
+        return mysql && streaming ? Integer.MIN_VALUE : 0;
+    }
+
+    @Override
+    public boolean supportsRowValues() {
+        return true;
+    }
+}
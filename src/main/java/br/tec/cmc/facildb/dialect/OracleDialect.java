@@ -0,0 +1,55 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.dialect;
+
+/**
+ * Oracle limits rows with rownum, which is numbered before the order by.
+ * The select is wrapped in a subquery so the limit applies to the ordered
+ * rows. With an offset the row number goes in the extra column rnum__.
+ *
+ * The driver fetches 10 rows per round trip by default, too few for
+ * selects of many rows.
+ */
+class OracleDialect extends Dialect {
+
+    private static final int FETCH_SIZE = 500;
+
+    @Override
+    public int fetchSize(boolean streaming) {
+        return FETCH_SIZE;
+    }
+
+    @Override
+    public void selectSuffix(StringBuilder sql, boolean ordered, int maxResults, int offset) {
+        // Limite feito por wrap()
+    }
+
+    @Override
+    public String wrap(String sql, int maxResults, int offset) {
+        if (offset > 0) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("\r\nselect * from (select q__.*, rownum rnum__ from (").append(sql).append(") q__");
+            if (maxResults > 0) {
+                sb.append(" where rownum <= ").append((long) offset + maxResults);
+            }
+            return sb.append(")\r\n   where rnum__ > ").append(offset).append("\r\n").toString();
+        }
+        if (maxResults > 0) {
+            return "\r\nselect * from (" + sql + ")\r\n   where rownum <= " + maxResults + "\r\n";
+        }
+        return sql;
+    }
+}
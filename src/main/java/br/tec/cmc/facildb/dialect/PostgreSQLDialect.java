@@ -0,0 +1,39 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.dialect;
+
+/**
+ * PostgreSQL reads the whole result into memory unless the fetch size is
+ * set and autocommit is off, when it uses a cursor.
+ */
+class PostgreSQLDialect extends LimitOffsetDialect {
+
+    private static final int STREAMING_FETCH_SIZE = 1000;
+
+    PostgreSQLDialect() {
+        super(false);
+    }
+
+    @Override
+    public int fetchSize(boolean streaming) {
+        return streaming ? STREAMING_FETCH_SIZE : 0;
+    }
+
+    @Override
+    public boolean cursorNeedsTransaction() {
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.dialect;
+
+/**
+ * OpenEdge: "select top n" without offset, "offset m rows fetch next n
+ * rows only" with one, and every select read "with (nolock)".
+ */
+class ProgressDialect extends Dialect {
+
+    @Override
+    public void selectPrefix(StringBuilder sql, int maxResults, int offset) {
+        if (maxResults > 0 && offset <= 0) {
+            sql.append("top ").append(maxResults).append(" ");
+        }
+    }
+
+    @Override
+    public void selectSuffix(StringBuilder sql, boolean ordered, int maxResults, int offset) {
+        if (offset <= 0) {
+            return;
+        }
+        sql.append("    offset ").append(offset).append(" rows\r\n");
+        if (maxResults > 0) {
+            sql.append("    fetch next ").append(maxResults).append(" rows only\r\n");
+        }
+    }
+
+    @Override
+    public String hint() {
+        return "    with (nolock)\r\n";
+    }
+}
@@ -42,6 +42,9 @@ public class Column {
         this.setColumnType(js.optString("columnType"));
         this.setColumnSize(js.optInt("columnSize"));
         this.setNullable(js.optBoolean("nullable"));
+        this.setPrimaryKey(js.optBoolean("primaryKey"));
+        this.setIndexed(js.optBoolean("indexed"));
+        this.setFkTableName(js.optString("fkTableName", null));
     }
 
     public Column(String columnName, String columnType) {
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import br.tec.cmc.facildb.DDLListener;
+import br.tec.cmc.facildb.FacilDB;
+
+/**
+ * Thread-safe cache of tables and table lists read by MetadataDB, keyed by
+ * (database, catalog, schema, table) and kept for ttl milliseconds.
+ *
+ * Missing tables are cached too, so repeated lookups of a table that does
+ * not exist do not hit the catalog either. The cache is a DDLListener:
+ * once registered with FacilDB.addDDLListener(), every create, alter,
+ * drop or truncate run through FacilDB invalidates the affected table,
+ * the new name of a renamed table and the tables with a foreign key
+ * column (name_id) to it.
+ * The shared() cache is registered when created.
+ *
+ * Cached Table objects are shared between callers and must not be changed.
+ */
+public class MetadataCache implements DDLListener {
+
+    public static final long DEFAULT_TTL = 300000L;
+
+    private static final Pattern DDL_TABLE = Pattern.compile(
+        "\\s*(?:create|alter|drop|truncate)\\s+(?:\\w+\\s+)*?table\\s+(?:if\\s+(?:not\\s+)?exists\\s+)?([\\w.\"`\\[\\]]+)",
+        Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern RENAME_TO = Pattern.compile(
+        "\\s*rename\\s+to\\s+([\\w.\"`\\[\\]]+)", Pattern.CASE_INSENSITIVE);
+
+    private static volatile MetadataCache shared;
+
+    private final Map<Key, Entry<Table>> tables = new ConcurrentHashMap<>();
+    private final Map<Key, Entry<List<String>>> tableLists = new ConcurrentHashMap<>();
+    private volatile long ttl;
+
+    public MetadataCache() {
+        this(DEFAULT_TTL);
+    }
+
+    public MetadataCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Cache shared by the whole application, registered as DDL listener.
+     */
+    public static MetadataCache shared() {
+        MetadataCache cache = shared;
+        if (cache == null) {
+            synchronized (MetadataCache.class) {
+                cache = shared;
+                if (cache == null) {
+                    cache = new MetadataCache();
+                    FacilDB.addDDLListener(cache);
+                    shared = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    Table getTable(String database, String catalog, String schema, String tableName) {
+        return get(tables, new Key(database, catalog, schema, tableName));
+    }
+
+    void putTable(String database, String catalog, String schema, String tableName, Table table) {
+        tables.put(new Key(database, catalog, schema, tableName), new Entry<>(table, expiration()));
+    }
+
+    List<String> getTableList(String database, String catalog, String schema) {
+        List<String> list = get(tableLists, new Key(database, catalog, schema, null));
+        return list == null ? null : new ArrayList<>(list);
+    }
+
+    void putTableList(String database, String catalog, String schema, List<String> list) {
+        tableLists.put(new Key(database, catalog, schema, null), new Entry<>(new ArrayList<>(list), expiration()));
+    }
+
+    /**
+     * Removes the table from the cache, in every database, and the table
+     * lists of its schema.
+     */
+    public void invalidate(String catalog, String schema, String tableName) {
+        tables.keySet().removeIf(k -> k.matches(catalog, schema, tableName));
+        tableLists.keySet().removeIf(k -> k.matches(catalog, schema, null));
+    }
+
+    /**
+     * Removes the table from every catalog and schema, the tables with a
+     * foreign key column to it, and all table lists.
+     */
+    public void invalidateTable(String tableName) {
+        String fkColumn = tableName + "_id";
+        tables.entrySet().removeIf(e -> (e.getKey().table != null && e.getKey().table.equalsIgnoreCase(tableName))
+                                        || hasColumn(e.getValue().value, fkColumn));
+        tableLists.clear();
+    }
+
+    public void invalidateAll() {
+        tables.clear();
+        tableLists.clear();
+    }
+
+    @Override
+    public void onDDL(String sql) {
+        Matcher m = DDL_TABLE.matcher(sql);
+        if (!m.lookingAt()) {
+            invalidateAll();
+            return;
+        }
+        invalidateTable(tableName(m.group(1)));
+        Matcher rename = RENAME_TO.matcher(sql);
+        rename.region(m.end(), sql.length());
+        if (rename.lookingAt()) {
+            invalidateTable(tableName(rename.group(1)));
+        }
+    }
+
+    public int size() {
+        return tables.size();
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    private static String tableName(String name) {
+        name = name.replaceAll("[\"`\\[\\]]", "");
+        int p = name.lastIndexOf('.');
+        return p >= 0 ? name.substring(p + 1) : name;
+    }
+
+    private static boolean hasColumn(Table table, String columnName) {
+        if (table == null || table.getColumns() == null) {
+            return false;
+        }
+        for (Column column: table.getColumns()) {
+            if (column.getColumnName().equalsIgnoreCase(columnName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long expiration() {
+        return System.currentTimeMillis() + ttl;
+    }
+
+    private static <T> T get(Map<Key, Entry<T>> map, Key key) {
+        Entry<T> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            map.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private static final class Entry<T> {
+        private final T value;
+        private final long expires;
+
+        Entry(T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Key {
+        private final String database;
+        private final String catalog;
+        private final String schema;
+        private final String table;
+
+        Key(String database, String catalog, String schema, String table) {
+            this.database = database;
+            this.catalog = catalog == null ? "" : catalog;
+            this.schema = schema == null ? "" : schema;
+            this.table = table;
+        }
+
+        boolean matches(String catalog, String schema, String table) {
+            return (catalog == null || this.catalog.equalsIgnoreCase(catalog)) &&
+                   (schema == null || this.schema.equalsIgnoreCase(schema)) &&
+                   (table == null || (this.table != null && this.table.equalsIgnoreCase(table)));
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(database, catalog, schema, table);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(database, other.database) &&
+                   catalog.equals(other.catalog) &&
+                   schema.equals(other.schema) &&
+                   Objects.equals(table, other.table);
+        }
+    }
+}
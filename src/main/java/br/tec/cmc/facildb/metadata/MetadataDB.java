@@ -15,24 +15,61 @@
  */
 package br.tec.cmc.facildb.metadata;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import br.tec.cmc.facildb.AsyncExecutor;
 
 public class MetadataDB {
 
     private DatabaseMetaData dmd;
-    private Map<String, String> tableMap;
+    private final Map<String, Map<String, String>> tableMaps = new HashMap<>();
+    private MetadataCache cache;
+    private String database;
 
     public MetadataDB(DatabaseMetaData dmd) {
         this.dmd = dmd;
     }
 
+    /**
+     * Reads the metadata through the cache. Use MetadataCache.shared() to
+     * share it with the whole application.
+     */
+    public MetadataDB(DatabaseMetaData dmd, MetadataCache cache) throws SQLException {
+        this.dmd = dmd;
+        this.cache = cache;
+        if (dmd != null) {
+            this.database = dmd.getURL() + "|" + dmd.getUserName();
+        }
+    }
+
+    public MetadataCache getCache() {
+        return cache;
+    }
+
+    DatabaseMetaData getMetaData() {
+        return dmd;
+    }
+
+    void cacheTables(String catalog, String schema, List<Table> tables) {
+        if (cache != null) {
+            for (Table table: tables) {
+                cache.putTable(database, catalog, schema, table.getTableName(), table);
+            }
+        }
+    }
+
     public List<String> getCatalogs() throws SQLException {
         List<String> list = new ArrayList<>();
         if (dmd != null) {
@@ -58,6 +95,12 @@ public class MetadataDB {
     }
 
     public List<String> getTableList(String catalog, String schema) throws SQLException {
+        if (cache != null) {
+            List<String> cached = cache.getTableList(database, catalog, schema);
+            if (cached != null) {
+                return cached;
+            }
+        }
         List<String> tables = new ArrayList<>();
         if (dmd != null) {
             ResultSet rs = dmd.getTables(catalog, schema, null, null);
@@ -68,24 +111,47 @@ public class MetadataDB {
                 }
             }
             rs.close();
+            if (cache != null) {
+                cache.putTableList(database, catalog, schema, tables);
+            }
         }
         return tables;
     }
 
-    private void getTableListAsMap(String catalog, String schema) throws SQLException {
+    /**
+     * Tables of the schema, used to find the table of a foreign key column.
+     * With a cache the map follows the cached table list, so it sees the
+     * tables created later; without one it is read once per schema.
+     */
+    private Map<String, String> getTableListAsMap(String catalog, String schema) throws SQLException {
+        String key = catalog + "|" + schema;
+        Map<String, String> tableMap = cache == null ? tableMaps.get(key) : null;
         if (tableMap == null) {
-            List<String> tableList = getTableList(catalog, schema);
             tableMap = new HashMap<>();
-            for (String tbName: tableList) {
+            for (String tbName: getTableList(catalog, schema)) {
                 tableMap.put(tbName, tbName);
             }
+            if (cache == null) {
+                tableMaps.put(key, tableMap);
+            }
         }
+        return tableMap;
     }
 
     public Table getTable(String catalog, String schema, String tableName) throws SQLException {
+        if (cache == null) {
+            return loadTable(catalog, schema, tableName, getTableListAsMap(catalog, schema));
+        }
+        Table table = cache.getTable(database, catalog, schema, tableName);
+        if (table == null) {
+            table = loadTable(catalog, schema, tableName, getTableListAsMap(catalog, schema));
+            cache.putTable(database, catalog, schema, tableName, table);
+        }
+        return table;
+    }
 
-        getTableListAsMap(catalog, schema);
-
+    private Table loadTable(String catalog, String schema, String tableName, 
+                            Map<String, String> tableMap) throws SQLException {
         Table table = new Table();
         table.setCatalog(catalog);
         table.setSchema(schema);
@@ -97,145 +163,309 @@ public class MetadataDB {
         
         if (dmd != null) {
             ResultSet rs = dmd.getColumns(catalog, schema, tableName, null);
+            try {
+                while (rs.next()) {
+                    table.addColumn(readColumn(rs, pks, idxs, tableMap));
+                }
+            } finally {
+                rs.close();
+            }
+        }
+        return table;
+    }
 
+    /**
+     * Reads all tables of the schema with one getColumns(), one
+     * getPrimaryKeys() and one getIndexInfo() call, instead of three calls
+     * per table. When the driver rejects a null table name in
+     * getPrimaryKeys() or getIndexInfo(), or returns nothing for it (H2
+     * does), those fall back to one call per table.
+     */
+    public List<Table> getSchemaTables(String catalog, String schema) throws SQLException {
+        List<String> tableList = getTableList(catalog, schema);
+        Map<String, String> tableMap = getTableListAsMap(catalog, schema);
+
+        Map<String, Table> tables = new LinkedHashMap<>();
+        for (String tableName: tableList) {
+            Table table = new Table();
+            table.setCatalog(catalog);
+            table.setSchema(schema);
+            table.setTableName(tableName);
+            table.setTableType("TABLE");
+            tables.put(tableName, table);
+        }
+        if (dmd == null || tables.isEmpty()) {
+            return new ArrayList<>(tables.values());
+        }
+
+        Map<String, Map<String, String>> pks = getSchemaPrimaryKeys(catalog, schema, tableList);
+        Map<String, Map<String, String>> idxs = getSchemaIndexedColumns(catalog, schema, tableList);
+        Map<String, String> empty = new HashMap<>();
+
+        ResultSet rs = dmd.getColumns(catalog, schema, null, null);
+        try {
             while (rs.next()) {
-                String columnName = rs.getString("COLUMN_NAME");
-                String columnType = "";
-                int colType = rs.getInt("DATA_TYPE");
-                String colTypeName = rs.getString("TYPE_NAME").toLowerCase();
-                switch (colType) {
-                    case Types.BIGINT:
-                        columnType = "Long";
-                        break;
-                    case Types.INTEGER:
-                        columnType = "Integer";
-                        break;
-                    case Types.SMALLINT:
-                        columnType = "Integer";
-                        break;
-                    case Types.TINYINT:
-                        columnType = "Integer";
-                        break;
-                    case Types.DECIMAL:
-                        columnType = "BigDecimal";
-                        break;
-                    case Types.DOUBLE:
-                        columnType = "BigDecimal";
-                        break;
-                    case Types.FLOAT:
-                        columnType = "BigDecimal";
-                        break;
-                    case Types.NUMERIC:
-                        columnType = "BigDecimal";
-                        break;
-                    case Types.REAL:
-                        columnType = "BigDecimal";
-                        break;
-                    case Types.CHAR:
-                        columnType = "String";
-                        break;
-                    case Types.VARCHAR:
-                        columnType = "String";
-                        break;
-                    case Types.LONGNVARCHAR:
-                        columnType = "String";
-                        break;
-                    case Types.LONGVARCHAR:
-                        columnType = "String";
-                        break;
-                    case Types.NCHAR:
-                        columnType = "String";
-                        break;
-                    case Types.BINARY:
-                        columnType = "Boolean";
-                        break;
-                    case Types.BIT:
-                        columnType = "Boolean";
-                        break;
-                    case Types.VARBINARY:
-                        columnType = "Boolean";
-                        break;
-                    case Types.TIME:
-                        columnType = "Date";
-                        break;
-                    case Types.TIMESTAMP:
-                        columnType = "Date";
-                        break;
-                    case Types.TIME_WITH_TIMEZONE:
-                        columnType = "Date";
-                        break;
-                    case Types.TIMESTAMP_WITH_TIMEZONE:
-                        columnType = "Date";
-                        break;
-                    case Types.CLOB:
-                        columnType = "String";
-                        break;
-                    case Types.ARRAY:
-                        columnType = "List";
-                        break;
-                    case Types.JAVA_OBJECT:
-                        columnType = "Object";
-                        break;
+                Table table = tables.get(rs.getString("TABLE_NAME"));
+                if (table != null) {
+                    String tableName = table.getTableName();
+                    table.addColumn(readColumn(rs, 
+                                               pks.getOrDefault(tableName, empty), 
+                                               idxs.getOrDefault(tableName, empty),
+                                               tableMap));
                 }
-                if (columnType.equals("")) {
-                    switch (colTypeName) {
-                        case "int":
-                            columnType = "Integer";
-                            break;
-                        case "date":
-                            columnType = "Date";
-                            break;
-                        case "varchar":
-                            columnType = "String";
-                            break;
-                        case "bit":
-                            columnType = "Boolean";
-                            break;
-                        case "enum":
-                            columnType = "String";
-                            break;
+            }
+        } finally {
+            rs.close();
+        }
+        List<Table> list = new ArrayList<>(tables.values());
+        cacheTables(catalog, schema, list);
+        return list;
+    }
+
+    /**
+     * Reads all tables of the schema splitting the table list among the
+     * connections, at most parallelism at once. Each connection is used by
+     * one thread only. The tables are returned in the order of
+     * getTableList(). Runs on the executor of the async queries, virtual
+     * threads on JDK 21+.
+     */
+    public static List<Table> getSchemaTables(List<Connection> connections, String catalog, String schema, 
+                                              int parallelism) throws SQLException {
+        return getSchemaTables(connections, catalog, schema, parallelism, AsyncExecutor.getDefault());
+    }
+
+    public static List<Table> getSchemaTables(List<Connection> connections, String catalog, String schema, 
+                                              int parallelism, ExecutorService executor) throws SQLException {
+        if (connections.isEmpty()) {
+            throw new SQLException("Nenhuma conexao informada para leitura dos metadados.");
+        }
+        MetadataDB first = new MetadataDB(connections.get(0).getMetaData());
+        List<String> tableList = first.getTableList(catalog, schema);
+        Map<String, String> tableMap = first.getTableListAsMap(catalog, schema);
+
+        int parts = Math.max(1, Math.min(Math.min(parallelism, connections.size()), tableList.size()));
+        int chunk = (tableList.size() + parts - 1) / parts;
+        Table[] tables = new Table[tableList.size()];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int p = 0; p < parts; p++) {
+            Connection conn = connections.get(p);
+            int from = p * chunk;
+            int to = Math.min(from + chunk, tableList.size());
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    MetadataDB worker = new MetadataDB(conn.getMetaData());
+                    for (int i = from; i < to; i++) {
+                        tables[i] = worker.loadTable(catalog, schema, tableList.get(i), tableMap);
                     }
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
                 }
-                if (columnType.equals("")) {
-                    columnType = "String";
-                }
-                Column column = new Column(columnName, columnType);
-                column.setColumnSize(rs.getInt("COLUMN_SIZE"));
-                String isnlb = rs.getString("IS_NULLABLE");
-                boolean isNullable = false;
-                if (isnlb.equalsIgnoreCase("yes")) {
-                    isNullable = true;
-                }
-                column.setNullable(isNullable);
-                if (pks.containsKey(columnName)) {
-                    column.setPrimaryKey(true);
-                }
-                if (idxs.containsKey(columnName)) {
-                    column.setIndexed(true);
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        }
+        List<Table> list = new ArrayList<>(tables.length);
+        for (Table table: tables) {
+            list.add(table);
+        }
+        return list;
+    }
+
+    private Map<String, Map<String, String>> getSchemaPrimaryKeys(String catalog, String schema, 
+                                                                  List<String> tableList) throws SQLException {
+        Map<String, Map<String, String>> map = new HashMap<>();
+        try {
+            ResultSet rs = dmd.getPrimaryKeys(catalog, schema, null);
+            try {
+                while (rs.next()) {
+                    String columnName = rs.getString("COLUMN_NAME");
+                    map.computeIfAbsent(rs.getString("TABLE_NAME"), k -> new HashMap<>())
+                       .put(columnName, columnName);
                 }
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            map.clear();
+        }
+        if (map.isEmpty()) {
+            for (String tableName: tableList) {
+                map.put(tableName, getPrimaryKeysAsMap(catalog, schema, tableName));
+            }
+        }
+        return map;
+    }
 
-                // Check if column if FK
-                if (columnName.endsWith("_id")) {
-                    String tbn = columnName.substring(0, columnName.lastIndexOf("_id"));
-                    if (tableMap.containsKey(tbn)) {
-                        column.setFkTableName(tbn);
+    private Map<String, Map<String, String>> getSchemaIndexedColumns(String catalog, String schema, 
+                                                                     List<String> tableList) throws SQLException {
+        Map<String, Map<String, String>> map = new HashMap<>();
+        try {
+            ResultSet rs = dmd.getIndexInfo(catalog, schema, null, false, false);
+            try {
+                while (rs.next()) {
+                    String columnName = rs.getString("COLUMN_NAME");
+                    if (columnName != null && !columnName.equals("id")) {
+                        map.computeIfAbsent(rs.getString("TABLE_NAME"), k -> new HashMap<>())
+                           .put(columnName, columnName);
                     }
                 }
-                table.addColumn(column);
-            }
-            if (rs != null) {
+            } finally {
                 rs.close();
             }
+        } catch (SQLException e) {
+            map.clear();
         }
-        return table;
+        if (map.isEmpty()) {
+            for (String tableName: tableList) {
+                map.put(tableName, getIndexedColumnsAsMap(catalog, schema, tableName));
+            }
+        }
+        return map;
+    }
+
+    private Column readColumn(ResultSet rs, Map<String, String> pks, Map<String, String> idxs, 
+                              Map<String, String> tableMap) throws SQLException {
+        String columnName = rs.getString("COLUMN_NAME");
+        String columnType = "";
+        int colType = rs.getInt("DATA_TYPE");
+        String colTypeName = rs.getString("TYPE_NAME").toLowerCase();
+        switch (colType) {
+            case Types.BIGINT:
+                columnType = "Long";
+                break;
+            case Types.INTEGER:
+                columnType = "Integer";
+                break;
+            case Types.SMALLINT:
+                columnType = "Integer";
+                break;
+            case Types.TINYINT:
+                columnType = "Integer";
+                break;
+            case Types.DECIMAL:
+                columnType = "BigDecimal";
+                break;
+            case Types.DOUBLE:
+                columnType = "BigDecimal";
+                break;
+            case Types.FLOAT:
+                columnType = "BigDecimal";
+                break;
+            case Types.NUMERIC:
+                columnType = "BigDecimal";
+                break;
+            case Types.REAL:
+                columnType = "BigDecimal";
+                break;
+            case Types.CHAR:
+                columnType = "String";
+                break;
+            case Types.VARCHAR:
+                columnType = "String";
+                break;
+            case Types.LONGNVARCHAR:
+                columnType = "String";
+                break;
+            case Types.LONGVARCHAR:
+                columnType = "String";
+                break;
+            case Types.NCHAR:
+                columnType = "String";
+                break;
+            case Types.BINARY:
+                columnType = "Boolean";
+                break;
+            case Types.BIT:
+                columnType = "Boolean";
+                break;
+            case Types.VARBINARY:
+                columnType = "Boolean";
+                break;
+            case Types.TIME:
+                columnType = "Date";
+                break;
+            case Types.TIMESTAMP:
+                columnType = "Date";
+                break;
+            case Types.TIME_WITH_TIMEZONE:
+                columnType = "Date";
+                break;
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                columnType = "Date";
+                break;
+            case Types.CLOB:
+                columnType = "String";
+                break;
+            case Types.ARRAY:
+                columnType = "List";
+                break;
+            case Types.JAVA_OBJECT:
+                columnType = "Object";
+                break;
+        }
+        if (columnType.equals("")) {
+            switch (colTypeName) {
+                case "int":
+                    columnType = "Integer";
+                    break;
+                case "date":
+                    columnType = "Date";
+                    break;
+                case "varchar":
+                    columnType = "String";
+                    break;
+                case "bit":
+                    columnType = "Boolean";
+                    break;
+                case "enum":
+                    columnType = "String";
+                    break;
+            }
+        }
+        if (columnType.equals("")) {
+            columnType = "String";
+        }
+        Column column = new Column(columnName, columnType);
+        column.setColumnSize(rs.getInt("COLUMN_SIZE"));
+        String isnlb = rs.getString("IS_NULLABLE");
+        boolean isNullable = false;
+        if (isnlb.equalsIgnoreCase("yes")) {
+            isNullable = true;
+        }
+        column.setNullable(isNullable);
+        if (pks.containsKey(columnName)) {
+            column.setPrimaryKey(true);
+        }
+        if (idxs.containsKey(columnName)) {
+            column.setIndexed(true);
+        }
+
+        // Check if column if FK
+        if (columnName.endsWith("_id")) {
+            String tbn = columnName.substring(0, columnName.lastIndexOf("_id"));
+            if (tableMap.containsKey(tbn)) {
+                column.setFkTableName(tbn);
+            }
+        }
+        return column;
     }
 
     public List<String> getPrimaryKeys(String catalog, String schema, String tableName) throws SQLException {
         List<String> pks = new ArrayList<>();
         ResultSet rs = dmd.getPrimaryKeys(catalog, schema, tableName);
-
-        while (rs.next()) {
-            pks.add(rs.getString("COLUMN_NAME"));
+        try {
+            while (rs.next()) {
+                pks.add(rs.getString("COLUMN_NAME"));
+            }
+        } finally {
+            rs.close();
         }
         return pks;
     }
@@ -243,8 +473,12 @@ public class MetadataDB {
     public List<String> getIndexedColumns(String catalog, String schema, String tableName) throws SQLException {
         List<String> list = new ArrayList<>();
         ResultSet rs = dmd.getIndexInfo(catalog, schema, tableName, false, false);
-        while (rs.next()) {
-            list.add(rs.getString("COLUMN_NAME"));
+        try {
+            while (rs.next()) {
+                list.add(rs.getString("COLUMN_NAME"));
+            }
+        } finally {
+            rs.close();
         }
         return list;
     }
@@ -252,10 +486,13 @@ public class MetadataDB {
     private Map<String, String> getPrimaryKeysAsMap(String catalog, String schema, String tableName) throws SQLException {
         Map<String, String> map = new HashMap<>();
         ResultSet rs = dmd.getPrimaryKeys(catalog, schema, tableName);
-
-        while (rs.next()) {
-            String columnName = rs.getString("COLUMN_NAME");
-            map.put(columnName, columnName);
+        try {
+            while (rs.next()) {
+                String columnName = rs.getString("COLUMN_NAME");
+                map.put(columnName, columnName);
+            }
+        } finally {
+            rs.close();
         }
         return map;
     }
@@ -263,11 +500,15 @@ public class MetadataDB {
     private Map<String, String> getIndexedColumnsAsMap(String catalog, String schema, String tableName) throws SQLException {
         Map<String, String> map = new HashMap<>();
         ResultSet rs = dmd.getIndexInfo(catalog, schema, tableName, false, false);
-        while (rs.next()) {
-            String columnName = rs.getString("COLUMN_NAME");
-            if (!columnName.equals("id")) {
-                map.put(columnName, columnName);
+        try {
+            while (rs.next()) {
+                String columnName = rs.getString("COLUMN_NAME");
+                if (!columnName.equals("id")) {
+                    map.put(columnName, columnName);
+                }
             }
+        } finally {
+            rs.close();
         }
         return map;
     }
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.metadata;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Tables of a schema saved to a JSON file, so an application can start
+ * without reading the database catalog.
+ *
+ * The snapshot keeps a fingerprint of the schema: the table count, a hash
+ * of the table names and, on Oracle, MySQL and SQL Server, the time of the
+ * last DDL. loadOrRefresh() compares it with the current fingerprint and
+ * only reads the catalog again when they differ.
+ *
+ * <pre>
+ * List&lt;Table&gt; tables = MetadataSnapshot.loadOrRefresh(Paths.get("schema.json"), metaDb, "", "PUBLIC");
+ * </pre>
+ */
+public class MetadataSnapshot {
+
+    private static final int VERSION = 1;
+
+    private final String catalog;
+    private final String schema;
+    private final String fingerprint;
+    private final List<Table> tables;
+
+    public MetadataSnapshot(String catalog, String schema, String fingerprint, List<Table> tables) {
+        this.catalog = catalog;
+        this.schema = schema;
+        this.fingerprint = fingerprint;
+        this.tables = tables;
+    }
+
+    /**
+     * Reads all tables of the schema and its fingerprint.
+     */
+    public static MetadataSnapshot take(MetadataDB metaDb, String catalog, String schema) throws SQLException {
+        String fingerprint = fingerprint(metaDb, catalog, schema);
+        return new MetadataSnapshot(catalog, schema, fingerprint, metaDb.getSchemaTables(catalog, schema));
+    }
+
+    /**
+     * Returns the tables of the snapshot file when it is still current,
+     * otherwise reads the catalog and rewrites the file. When the metaDb
+     * has a MetadataCache the tables are put in it.
+     */
+    public static List<Table> loadOrRefresh(Path file, MetadataDB metaDb, String catalog,
+                                            String schema) throws SQLException, IOException {
+        if (Files.exists(file)) {
+            MetadataSnapshot snapshot;
+            try {
+                snapshot = load(file);
+            } catch (JSONException e) {
+                snapshot = null;
+            }
+            if (snapshot != null &&
+                sameName(snapshot.catalog, catalog) &&
+                sameName(snapshot.schema, schema) &&
+                !snapshot.isStale(metaDb)) {
+                metaDb.cacheTables(catalog, schema, snapshot.tables);
+                return snapshot.getTables();
+            }
+        }
+        MetadataSnapshot snapshot = take(metaDb, catalog, schema);
+        snapshot.save(file);
+        return snapshot.getTables();
+    }
+
+    public static MetadataSnapshot load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JSONObject js = new JSONObject(new JSONTokener(reader));
+            if (js.optInt("version") != VERSION) {
+                throw new JSONException("Versao do snapshot nao suportada: " + js.optInt("version"));
+            }
+            List<Table> tables = new ArrayList<>();
+            JSONArray ar = js.optJSONArray("tables");
+            if (ar != null) {
+                for (int i=0; i<ar.length(); i++) {
+                    tables.add(new Table(ar.getJSONObject(i)));
+                }
+            }
+            return new MetadataSnapshot(js.optString("catalog"), js.optString("schema"),
+                                        js.optString("fingerprint"), tables);
+        }
+    }
+
+    /**
+     * Writes the snapshot with only the stored fields of the columns. The
+     * file is written to a temporary file first and then moved, so a crash
+     * never leaves a partial snapshot.
+     */
+    public void save(Path file) throws IOException {
+        JSONObject js = new JSONObject();
+        js.put("version", VERSION);
+        js.put("catalog", catalog == null ? "" : catalog);
+        js.put("schema", schema == null ? "" : schema);
+        js.put("fingerprint", fingerprint);
+        JSONArray ar = new JSONArray();
+        for (Table table: tables) {
+            ar.put(compact(table));
+        }
+        js.put("tables", ar);
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                js.write(writer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * True when the schema changed since the snapshot was taken.
+     */
+    public boolean isStale(MetadataDB metaDb) throws SQLException {
+        return !fingerprint.equals(fingerprint(metaDb, catalog, schema));
+    }
+
+    /**
+     * Cheap description of the schema: table count, hash of the table
+     * names and, where the catalog has it, the time of the last DDL.
+     */
+    public static String fingerprint(MetadataDB metaDb, String catalog, String schema) throws SQLException {
+        // Reads the table list without the cache, it may be older than the snapshot
+        List<String> tableList = new MetadataDB(metaDb.getMetaData()).getTableList(catalog, schema);
+        StringBuilder sb = new StringBuilder();
+        sb.append(tableList.size()).append(":").append(Integer.toHexString(tableList.hashCode()));
+        String lastDDL = lastDDL(metaDb.getMetaData(), schema);
+        if (lastDDL != null) {
+            sb.append(":").append(lastDDL);
+        }
+        return sb.toString();
+    }
+
+    public String getCatalog() {
+        return catalog;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public List<Table> getTables() {
+        return new ArrayList<>(tables);
+    }
+
+    private static String lastDDL(DatabaseMetaData dmd, String schema) throws SQLException {
+        if (dmd == null || schema == null || schema.isEmpty()) {
+            return null;
+        }
+        String product = dmd.getDatabaseProductName().toLowerCase();
+        String sql;
+        if (product.contains("oracle")) {
+            sql = "select max(last_ddl_time) from all_objects where owner = ?";
+        } else if (product.contains("mysql") || product.contains("mariadb")) {
+            sql = "select max(create_time) from information_schema.tables where table_schema = ?";
+        } else if (product.contains("microsoft sql server")) {
+            sql = "select max(modify_date) from sys.objects where schema_id = schema_id(?)";
+        } else {
+            return null;
+        }
+        try (PreparedStatement ps = dmd.getConnection().prepareStatement(sql)) {
+            ps.setString(1, schema);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return String.valueOf(rs.getTimestamp(1));
+                }
+            }
+        } catch (SQLException e) {
+            // Sem permissao no catalogo: usa so o numero de tabelas
+        }
+        return null;
+    }
+
+    private static JSONObject compact(Table table) {
+        JSONObject js = new JSONObject();
+        js.put("catalog", table.getCatalog());
+        js.put("schema", table.getSchema());
+        js.put("tableName", table.getTableName());
+        js.put("tableType", table.getTableType());
+        JSONArray cols = new JSONArray();
+        if (table.getColumns() != null) {
+            for (Column column: table.getColumns()) {
+                JSONObject col = new JSONObject();
+                col.put("columnName", column.getColumnName());
+                col.put("columnType", column.getColumnType());
+                col.put("columnSize", column.getColumnSize());
+                col.put("nullable", column.isNullable());
+                col.put("primaryKey", column.isPrimaryKey());
+                col.put("indexed", column.isIndexed());
+                col.putOpt("fkTableName", column.getFkTableName());
+                cols.put(col);
+            }
+        }
+        js.put("columns", cols);
+        return js;
+    }
+
+    private static boolean sameName(String a, String b) {
+        return (a == null ? "" : a).equals(b == null ? "" : b);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.util;
+
+import java.math.BigDecimal;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.Temporal;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Values in the text format of PostgreSQL COPY FROM STDIN.
+ *
+ * Null is \N, timestamps are ISO text with the offset of the default time
+ * zone and all their digits, byte arrays are bytea hex (\x...), and tabs,
+ * line breaks and backslashes are escaped.
+ */
+public class CopyText {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CopyText() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * True when append() writes the value as the column expects it; other
+     * values have to be bound with JDBC.
+     */
+    public static boolean supports(Object value) {
+        return value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+            || value instanceof Character || value instanceof Date || value instanceof byte[]
+            || value instanceof UUID || value instanceof Temporal;
+    }
+
+    /**
+     * Appends the value in the COPY text format. Throws
+     * IllegalArgumentException for a value not supported.
+     */
+    public static void append(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("\\N");
+        } else if (value instanceof String) {
+            escape(sb, (String) value);
+        } else if (value instanceof BigDecimal) {
+            sb.append(((BigDecimal) value).toPlainString());
+        } else if (value instanceof java.sql.Date || value instanceof Time) {
+            sb.append(value);
+        } else if (value instanceof Date) {
+            Timestamp ts = value instanceof Timestamp ? (Timestamp) value : new Timestamp(((Date) value).getTime());
+            sb.append(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(
+                ts.toInstant().atZone(TimeZone.getDefault().toZoneId())));
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            sb.append("\\\\x");
+            for (byte b: bytes) {
+                sb.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+            }
+        } else if (supports(value)) {
+            escape(sb, value.toString());
+        } else {
+            throw new IllegalArgumentException("Tipo nao suportado pelo COPY: " + value.getClass().getName());
+        }
+    }
+
+    private static void escape(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2020 Claudio Montenegro Chaves - CMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package br.tec.cmc.facildb.util;
+
+/**
+ * How date and timestamp columns are put in the JSON records.
+ *
+ * TEXT is "yyyy-MM-dd HH:mm:ss.SSS" in the default time zone, EPOCH_MILLIS
+ * is the number of milliseconds since 1970-01-01T00:00:00Z and ISO_8601
+ * is "yyyy-MM-dd" for dates and "yyyy-MM-ddTHH:mm:ss.SSS-03:00" for
+ * timestamps, always with the milliseconds.
+ */
+public enum DateMode {
+
+    TEXT,
+    EPOCH_MILLIS,
+    ISO_8601;
+}
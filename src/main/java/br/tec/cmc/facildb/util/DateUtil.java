@@ -17,8 +17,28 @@ package br.tec.cmc.facildb.util;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Date formatting and parsing.
+ *
+ * PATTERN_DATE_HOUR_MILISECONDS, the pattern of the JSON records, is
+ * written by hand into a char buffer. Other patterns use a cached,
+ * thread-safe DateTimeFormatter. Dates before 1901, when the time zones
+ * of java.time use the local mean time and TimeZone does not, after year
+ * 9999 and patterns that DateTimeFormatter reads differently from
+ * SimpleDateFormat still go through SimpleDateFormat, so the text is the
+ * same as before. A wall time repeated when daylight saving time ends is
+ * read with the later (standard) offset, as SimpleDateFormat does.
+ */
 public class DateUtil {
 
     public static final String PATTERN_DATE_HOUR = "yyyy-MM-dd HH:mm:ss";
@@ -27,23 +47,196 @@ public class DateUtil {
     public static final String PATTERN_DATE_T_HOUR_MILISECONDS = "yyyy-MM-dd'T'HH:mm:ss.SSS";
     public static final String PATTERN_DATE_ONLY = "yyyy-MM-dd";
 
+    /**
+     * Length of a date written with PATTERN_DATE_HOUR_MILISECONDS.
+     */
+    public static final int DATE_HOUR_MILISECONDS_LENGTH = 23;
+
+    private static final long GREGORIAN_START = -12219292800000L;
+    private static final long YEAR_1901 = -2177452800000L;
+    private static final int SAFE_YEAR = 1901;
+    private static final long YEAR_10000 = 253402300800000L;
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+    private static final DateTimeFormatter NOT_SUPPORTED = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final DateTimeFormatter ISO_MILLIS = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
     private DateUtil() {
         throw new IllegalStateException("Utility class");
     }
     
     public static String dateToString(Date dt, String pattern) {
+        long millis = dt.getTime();
+        if (PATTERN_DATE_HOUR_MILISECONDS.equals(pattern)) {
+            char[] buf = new char[DATE_HOUR_MILISECONDS_LENGTH];
+            if (formatDateHourMiliseconds(millis, TimeZone.getDefault(), buf, 0)) {
+                return new String(buf);
+            }
+        }
+        DateTimeFormatter formatter = formatter(pattern);
+        if (formatter != NOT_SUPPORTED && millis >= YEAR_1901 && millis < YEAR_10000) {
+            return formatter.format(Instant.ofEpochMilli(millis).atZone(TimeZone.getDefault().toZoneId()));
+        }
         SimpleDateFormat sdt = new SimpleDateFormat(pattern);
         return sdt.format(dt);
     }
 
+    /**
+     * Writes millis as "yyyy-MM-dd HH:mm:ss.SSS" in the time zone into
+     * buf, from off, without allocating. Returns false, writing nothing,
+     * for dates out of the Gregorian calendar or after year 9999.
+     */
+    public static boolean formatDateHourMiliseconds(long millis, TimeZone zone, char[] buf, int off) {
+        if (millis < GREGORIAN_START) {
+            return false;
+        }
+        long local = millis + zone.getOffset(millis);
+        if (local < GREGORIAN_START || local >= YEAR_10000) {
+            return false;
+        }
+        long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        int ms = (int) Math.floorMod(local, MILLIS_PER_DAY);
+
+        // Dias desde 1970-01-01 para ano/mes/dia, calendario gregoriano
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        int hour = ms / 3600000;
+        int minute = ms / 60000 % 60;
+        int second = ms / 1000 % 60;
+        int milli = ms % 1000;
+
+        digits(buf, off, year, 4);
+        buf[off + 4] = '-';
+        digits(buf, off + 5, month, 2);
+        buf[off + 7] = '-';
+        digits(buf, off + 8, day, 2);
+        buf[off + 10] = ' ';
+        digits(buf, off + 11, hour, 2);
+        buf[off + 13] = ':';
+        digits(buf, off + 14, minute, 2);
+        buf[off + 16] = ':';
+        digits(buf, off + 17, second, 2);
+        buf[off + 19] = '.';
+        digits(buf, off + 20, milli, 3);
+        return true;
+    }
+
+    /**
+     * "yyyy-MM-dd" for a java.sql.Date, otherwise
+     * "yyyy-MM-dd'T'HH:mm:ss.SSSXXX" with the offset of the default time
+     * zone.
+     */
+    public static String dateToIso8601(Date dt) {
+        if (dt instanceof java.sql.Date) {
+            return ((java.sql.Date) dt).toLocalDate().toString();
+        }
+        Instant instant = dt instanceof java.sql.Timestamp ? ((java.sql.Timestamp) dt).toInstant() : dt.toInstant();
+        return ISO_MILLIS.format(instant.atZone(TimeZone.getDefault().toZoneId()));
+    }
+
     public static Date stringToDate(String sDate) throws ParseException {
         return DateUtil.stringToDate(sDate, PATTERN_DATE_HOUR_MILISECONDS);
     }
         
     public static Date stringToDate(String sDate, String pattern) throws ParseException {
-        SimpleDateFormat sdf = new SimpleDateFormat(pattern);
         sDate = sDate.replace("T", " ");
+        if (PATTERN_DATE_HOUR_MILISECONDS.equals(pattern)) {
+            Date date = parseDateHourMiliseconds(sDate);
+            if (date != null) {
+                return date;
+            }
+        }
+        SimpleDateFormat sdf = new SimpleDateFormat(pattern);
         return sdf.parse(sDate);
     }
-    
+
+    private static Date parseDateHourMiliseconds(String s) {
+        if (s.length() != DATE_HOUR_MILISECONDS_LENGTH ||
+            s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != ' ' ||
+            s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(19) != '.') {
+            return null;
+        }
+        int year = number(s, 0, 4);
+        int month = number(s, 5, 2);
+        int day = number(s, 8, 2);
+        int hour = number(s, 11, 2);
+        int minute = number(s, 14, 2);
+        int second = number(s, 17, 2);
+        int milli = number(s, 20, 3);
+        if (year < SAFE_YEAR || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 || milli < 0) {
+            return null;
+        }
+        try {
+            LocalDateTime ldt = LocalDateTime.of(year, month, day, hour, minute, second, milli * 1000000);
+            ZonedDateTime zdt = ldt.atZone(TimeZone.getDefault().toZoneId()).withLaterOffsetAtOverlap();
+            return new Date(zdt.toInstant().toEpochMilli());
+        } catch (DateTimeException e) {
+            // Campo fora da faixa: o SimpleDateFormat leniente decide
+            return null;
+        }
+    }
+
+    private static int number(String s, int off, int len) {
+        int value = 0;
+        for (int i = off; i < off + len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void digits(char[] buf, int off, int value, int len) {
+        for (int i = off + len - 1; i >= off; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Cached DateTimeFormatter of the pattern, or NOT_SUPPORTED when the
+     * pattern has letters DateTimeFormatter reads differently.
+     */
+    private static DateTimeFormatter formatter(String pattern) {
+        DateTimeFormatter formatter = FORMATTERS.get(pattern);
+        if (formatter == null) {
+            formatter = compatible(pattern) ? DateTimeFormatter.ofPattern(pattern) : NOT_SUPPORTED;
+            FORMATTERS.put(pattern, formatter);
+        }
+        return formatter;
+    }
+
+    private static boolean compatible(String pattern) {
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                if ("yMdHms".indexOf(c) < 0 && c != 'S') {
+                    return false;
+                }
+                int run = 1;
+                while (i + run < pattern.length() && pattern.charAt(i + run) == c) {
+                    run++;
+                }
+                // O DateTimeFormatter recusa ou le diferente as outras repeticoes
+                if ((c == 'S' && run != 3) || (c == 'y' && run != 2 && run != 4) || (c != 'S' && c != 'y' && run > 2)) {
+                    return false;
+                }
+                i += run - 1;
+            }
+        }
+        return !quoted;
+    }
 }
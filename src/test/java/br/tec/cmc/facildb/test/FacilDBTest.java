@@ -2,11 +2,27 @@ package br.tec.cmc.facildb.test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.h2.tools.Server;
 import org.json.JSONArray;
@@ -19,11 +35,30 @@ import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
+import br.tec.cmc.facildb.ColumnarResult;
+import br.tec.cmc.facildb.DataBaseType;
 import br.tec.cmc.facildb.FacilDB;
+import br.tec.cmc.facildb.FacilDataSource;
 import br.tec.cmc.facildb.FacilH2;
+import br.tec.cmc.facildb.Keyset;
+import br.tec.cmc.facildb.LatencyHistogram;
+import br.tec.cmc.facildb.Page;
+import br.tec.cmc.facildb.ProcedureResults;
+import br.tec.cmc.facildb.Query;
+import br.tec.cmc.facildb.QueryEvent;
+import br.tec.cmc.facildb.QueryListener;
+import br.tec.cmc.facildb.SQLCommand;
+import br.tec.cmc.facildb.SlowQueryLog;
+import br.tec.cmc.facildb.StatementCache;
 import br.tec.cmc.facildb.metadata.Column;
+import br.tec.cmc.facildb.metadata.MetadataCache;
 import br.tec.cmc.facildb.metadata.MetadataDB;
+import br.tec.cmc.facildb.metadata.MetadataSnapshot;
 import br.tec.cmc.facildb.metadata.Table;
+import br.tec.cmc.facildb.util.CopyText;
+import br.tec.cmc.facildb.util.DataType;
+import br.tec.cmc.facildb.util.DateMode;
+import br.tec.cmc.facildb.util.DateUtil;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 class FacilDBTest {
@@ -302,6 +337,986 @@ class FacilDBTest {
         Assertions.assertEquals("ID", idxs.get(0)); 
     }
 
+    @Test
+    @Order(18)
+    void connectionPoolTest() throws SQLException {
+        FacilDataSource ds = new FacilDataSource(db.getUri(), "root", "1234");
+        ds.setMaxSize(1);
+        ds.setBorrowTimeout(100);
+
+        FacilDB db1 = new FacilDB(ds);
+        Assertions.assertEquals(8, db1.sql("select count(*) from publisher").queryCount());
+        Connection conn = db1.getConnection();
+        Assertions.assertThrows(SQLException.class, () -> new FacilDB(ds));
+        db1.closeConnection();
+
+        FacilDB db2 = new FacilDB(ds);
+        Assertions.assertSame(conn, db2.getConnection());
+        Assertions.assertTrue(db2.connectionIsValid());
+        db2.closeConnection();
+
+        Assertions.assertEquals(1, ds.getIdleCount());
+        ds.close();
+        Assertions.assertEquals(0, ds.getTotalCount());
+    }
+
+    @Test
+    @Order(19)
+    void statementCacheTest() throws SQLException {
+        StatementCache cache = db.getStatementCache();
+        long hits = cache.getHits();
+
+        for (int i=0; i<3; i++) {
+            db.select("id, title")
+              .from("book")
+              .where("id=?")
+              .param(2001L)
+              .queryUnique();
+        }
+
+        Assertions.assertTrue(cache.getHits() >= hits + 2);
+        Assertions.assertTrue(cache.size() <= cache.getMaxSize());
+    }
+
+    @Test
+    @Order(20)
+    void queryStreamTest() throws SQLException {
+        List<String> authors;
+        try (Stream<JSONObject> stream = db.select("id, author")
+                                           .from("book")
+                                           .where("publisher_id=?")
+                                           .param(1001L)
+                                           .orderBy("author")
+                                           .fetchSize(2)
+                                           .queryStream()) {
+            authors = stream.map(rec -> rec.getString("author")).collect(Collectors.toList());
+        }
+
+        Assertions.assertEquals(3, authors.size());
+        Assertions.assertEquals("Joshua Bloch", authors.get(0));
+    }
+
+    @Test
+    @Order(21)
+    void queryToWriterTest() throws SQLException, IOException {
+        StringWriter writer = new StringWriter();
+        long rows = db.select("id, title, author")
+                      .from("book")
+                      .where("publisher_id=?")
+                      .param(1001L)
+                      .orderBy("id")
+                      .queryTo(writer);
+
+        JSONArray list = new JSONArray(writer.toString());
+        Assertions.assertEquals(3, rows);
+        Assertions.assertEquals(3, list.length());
+        Assertions.assertEquals(2001L, list.getJSONObject(0).getLong("id"));
+        Assertions.assertEquals("Joshua Bloch", list.getJSONObject(0).getString("author"));
+    }
+
+    @Test
+    @Order(22)
+    void immutableQueryTest() throws SQLException {
+        Query byPublisher = Query.select("id, title, author")
+                                 .from("book")
+                                 .where("publisher_id=?")
+                                 .orderBy("id");
+        Query firstByPublisher = byPublisher.maxResults(1);
+
+        Assertions.assertEquals(3, db.query(byPublisher, 1001L).length());
+        Assertions.assertEquals(1, byPublisher.query(db, 1000L).length());
+        Assertions.assertEquals(1, db.query(firstByPublisher, 1001L).length());
+
+        JSONObject record = Query.sql("select title from book where id=?")
+                                 .sqlAlias("title")
+                                 .queryUnique(db.getConnection(), db.getDbType(), 2001L);
+        Assertions.assertEquals("Effective Java 3rd Edition", record.getString("title"));
+    }
+
+    @Test
+    @Order(23)
+    void batchUpdateDeleteTest() throws SQLException {
+        List<JSONObject> list = new ArrayList<>();
+        for (long id = 7000L; id < 7005L; id++) {
+            JSONObject rec = new JSONObject();
+            rec.put("id", id);
+            rec.put("pub_name", "Publisher " + id);
+            list.add(rec);
+        }
+
+        List<int[]> chunks = db.insert("publisher")
+                               .fields("id, pub_name")
+                               .batchSize(2)
+                               .executeBatch(list.stream());
+        Assertions.assertEquals(3, chunks.size());
+
+        // A assinatura da 1.2.0 continua void
+        Assertions.assertEquals(void.class, 
+            Assertions.assertDoesNotThrow(() -> FacilDB.class.getMethod("executeBatch", List.class)).getReturnType());
+
+        for (JSONObject rec : list) {
+            rec.put("pub_name", "Renamed " + rec.getLong("id"));
+        }
+        db.update("publisher")
+          .fields("pub_name")
+          .where("id=?")
+          .keys("id")
+          .executeBatch(list);
+        JSONObject record = db.select("pub_name")
+                              .from("publisher")
+                              .where("id=?")
+                              .param(7003L)
+                              .queryUnique();
+        Assertions.assertEquals("Renamed 7003", record.getString("pub_name"));
+
+        db.delete("publisher")
+          .where("id=?")
+          .keys("id")
+          .executeBatch(list);
+        long total = db.sql("select count(*) from publisher where id >= 7000").queryCount();
+        Assertions.assertEquals(0, total);
+    }
+
+    @Test
+    @Order(24)
+    void bulkLoadTest() throws SQLException {
+        List<JSONObject> list = new ArrayList<>();
+        for (long id = 8000L; id < 8025L; id++) {
+            JSONObject rec = new JSONObject();
+            rec.put("id", id);
+            rec.put("pub_name", "Bulk " + id);
+            list.add(rec);
+        }
+
+        long rows = db.batchSize(10).bulkLoad("publisher", "id, pub_name", list);
+        long total = db.sql("select count(*) from publisher where id >= 8000").queryCount();
+
+        Assertions.assertEquals(25, rows);
+        Assertions.assertEquals(25, total);
+        db.sql("delete from publisher where id >= 8000").execute();
+    }
+
+    @Test
+    @Order(25)
+    void queryAsyncTest() throws Exception {
+        FacilDataSource ds = new FacilDataSource(db.getUri(), "root", "1234");
+        ds.setMaxSize(4);
+        FacilDB db1 = new FacilDB(ds);
+
+        CompletableFuture<JSONArray> books = db1.select("id, title")
+                                                .from("book")
+                                                .where("publisher_id=?")
+                                                .param(1001L)
+                                                .queryAsync();
+        CompletableFuture<JSONArray> publishers = Query.select("id, pub_name")
+                                                       .from("publisher")
+                                                       .where("id=?")
+                                                       .queryAsync(ds, 1000L);
+
+        Assertions.assertEquals(3, books.get().length());
+        Assertions.assertEquals("Wiley", publishers.get().getJSONObject(0).getString("pub_name"));
+        db1.closeConnection();
+        ds.close();
+    }
+
+    @Test
+    @Order(26)
+    void metadataCacheTest() throws SQLException {
+        MetadataCache cache = new MetadataCache(60000);
+        FacilDB.addDDLListener(cache);
+        MetadataDB cachedDb = new MetadataDB(db.getConnection().getMetaData(), cache);
+
+        Table book = cachedDb.getTable("", "PUBLIC", "BOOK");
+        Assertions.assertSame(book, cachedDb.getTable("", "PUBLIC", "BOOK"));
+
+        Table missing = cachedDb.getTable("", "PUBLIC", "AUTHOR");
+        Assertions.assertNull(missing.getColumns());
+        Assertions.assertSame(missing, cachedDb.getTable("", "PUBLIC", "AUTHOR"));
+
+        db.sql("create table author (id bigint not null, primary key (id))").execute();
+        Table author = cachedDb.getTable("", "PUBLIC", "AUTHOR");
+        Assertions.assertEquals(1, author.getColumns().size());
+        Assertions.assertSame(book, cachedDb.getTable("", "PUBLIC", "BOOK"));
+
+        db.sql("drop table author").execute();
+        FacilDB.removeDDLListener(cache);
+    }
+
+    @Test
+    @Order(27)
+    void metadataSchemaTablesTest() throws SQLException {
+        List<Table> tables = metaDb.getSchemaTables("", "PUBLIC");
+        Assertions.assertEquals(2, tables.size());
+        for (Table table: tables) {
+            Table single = metaDb.getTable("", "PUBLIC", table.getTableName());
+            Assertions.assertEquals(single.toJSONObject().toString(), table.toJSONObject().toString());
+        }
+    }
+
+    @Test
+    @Order(28)
+    void metadataParallelTest() throws SQLException {
+        FacilDataSource ds = new FacilDataSource(db.getUri(), "root", "1234");
+        List<Connection> connections = new ArrayList<>();
+        connections.add(ds.getConnection());
+        connections.add(ds.getConnection());
+
+        List<Table> tables = MetadataDB.getSchemaTables(connections, "", "PUBLIC", 2);
+        Assertions.assertEquals(2, tables.size());
+        Assertions.assertEquals("BOOK", tables.get(0).getTableName());
+        Assertions.assertEquals("PUBLISHER", tables.get(1).getTableName());
+        Assertions.assertEquals(metaDb.getTable("", "PUBLIC", "BOOK").toJSONObject().toString(), 
+                                tables.get(0).toJSONObject().toString());
+
+        for (Connection conn: connections) {
+            ds.release(conn);
+        }
+        ds.close();
+    }
+
+    @Test
+    @Order(29)
+    void metadataSnapshotTest() throws SQLException, IOException {
+        Path file = Files.createTempFile("facildb-snapshot", ".json");
+        Files.delete(file);
+
+        List<Table> tables = MetadataSnapshot.loadOrRefresh(file, metaDb, "", "PUBLIC");
+        Assertions.assertTrue(Files.exists(file));
+        MetadataSnapshot snapshot = MetadataSnapshot.load(file);
+        Assertions.assertFalse(snapshot.isStale(metaDb));
+        Assertions.assertEquals(tables.toString(), snapshot.getTables().toString());
+        Column id = snapshot.getTables().get(0).getColumns().get(0);
+        Assertions.assertTrue(id.isPrimaryKey());
+        Assertions.assertTrue(id.isIndexed());
+
+        db.sql("create table author (id bigint not null, primary key (id))").execute();
+        Assertions.assertTrue(snapshot.isStale(metaDb));
+        Assertions.assertEquals(3, MetadataSnapshot.loadOrRefresh(file, metaDb, "", "PUBLIC").size());
+        db.sql("drop table author").execute();
+        Files.delete(file);
+    }
+
+    @Test
+    @Order(30)
+    void typedQueryTest() throws SQLException {
+        List<BookRow> books = db.select("id, title, publisher_id")
+                                .from("book")
+                                .where("publisher_id=?")
+                                .param(1001L)
+                                .orderBy("id")
+                                .query(BookRow.class);
+        Assertions.assertEquals(3, books.size());
+        Assertions.assertEquals(2001L, books.get(0).id);
+        Assertions.assertEquals("Effective Java 3rd Edition", books.get(0).getTitle());
+        Assertions.assertEquals(Long.valueOf(1001L), books.get(0).publisherId);
+
+        List<String> titles = db.sql("select title from book where id = ?")
+                                .param(2000L)
+                                .query(rs -> rs.getString(1));
+        Assertions.assertEquals("Linux Bible", titles.get(0));
+    }
+
+    @Test
+    @Order(31)
+    void columnarQueryTest() throws SQLException {
+        ColumnarResult result = db.select("id, author, publisher_id")
+                                  .from("book")
+                                  .orderBy("id")
+                                  .queryColumnar();
+        JSONArray books = db.select("id, author").from("book").orderBy("id").query();
+        Assertions.assertEquals(books.length(), result.getRowCount());
+        int id = result.getColumnIndex("id");
+        Assertions.assertEquals(ColumnarResult.ColumnType.LONG, result.getColumnType(id));
+        long sum = 0;
+        for (long value: result.getLongs(id)) {
+            sum += value;
+        }
+        Assertions.assertEquals(db.sql("select sum(id) from book").queryCount(), sum);
+        int author = result.getColumnIndex("author");
+        Assertions.assertEquals(books.getJSONObject(0).getString("author"), result.getString(author, 0));
+        Assertions.assertEquals(books.length(), result.getDictionary(author).size());
+        Assertions.assertFalse(result.isNull(author, 0));
+    }
+
+    @Test
+    @Order(32)
+    void dateFormatTest() throws SQLException, ParseException, IOException {
+        SimpleDateFormat sdf = new SimpleDateFormat(DateUtil.PATTERN_DATE_HOUR_MILISECONDS);
+        long[] samples = {0L, 1589721630123L, -1L, 951782400000L, 4102444799999L, -12219292800001L};
+        for (long millis: samples) {
+            Date date = new Date(millis);
+            Assertions.assertEquals(sdf.format(date), DateUtil.dateToString(date, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
+            Assertions.assertEquals(new SimpleDateFormat(DateUtil.PATTERN_DATE_ONLY).format(date), 
+                                    DateUtil.dateToString(date, DateUtil.PATTERN_DATE_ONLY));
+        }
+        Assertions.assertEquals(1589721630123L, DateUtil.stringToDate(sdf.format(new Date(1589721630123L))).getTime());
+
+        String sql = "select cast('2020-05-17 10:20:30.123' as timestamp) ts, cast('2020-05-17' as date) dt";
+        JSONObject text = db.sql(sql).sqlAlias("ts, dt").queryUnique();
+        Assertions.assertEquals("2020-05-17 10:20:30.123", text.getString("ts"));
+        Assertions.assertEquals("2020-05-17 00:00:00.000", text.getString("dt"));
+
+        JSONObject millis = db.dateMode(DateMode.EPOCH_MILLIS).sql(sql).sqlAlias("ts, dt").queryUnique();
+        Assertions.assertEquals(sdf.parse("2020-05-17 10:20:30.123").getTime(), millis.getLong("ts"));
+
+        JSONObject iso = db.dateMode(DateMode.ISO_8601).sql(sql).sqlAlias("ts, dt").queryUnique();
+        Assertions.assertTrue(iso.getString("ts").startsWith("2020-05-17T10:20:30.123"));
+        Assertions.assertEquals("2020-05-17", iso.getString("dt"));
+
+        StringWriter writer = new StringWriter();
+        db.dateMode(DateMode.TEXT).sql(sql).sqlAlias("ts, dt").queryTo(writer);
+        Assertions.assertEquals("[{\"ts\":\"2020-05-17 10:20:30.123\",\"dt\":\"2020-05-17 00:00:00.000\"}]", 
+                                writer.toString());
+    }
+
+    @Test
+    @Order(33)
+    void keysetPageTest() throws SQLException {
+        for (String keys: new String[] {"id", "publisher_id, id", "publisher_id desc, id"}) {
+            JSONArray all = db.select("id, publisher_id").from("book").orderBy(keys).query();
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < all.length(); i++) {
+                expected.add(all.getJSONObject(i).getLong("id"));
+            }
+
+            List<Long> ids = new ArrayList<>();
+            String token = null;
+            int pages = 0;
+            do {
+                Page page = db.select("id, publisher_id")
+                              .from("book")
+                              .where("id > ?")
+                              .param(0L)
+                              .page(Keyset.fromToken(keys, token), 2);
+                for (int i = 0; i < page.getRecords().length(); i++) {
+                    ids.add(page.getRecords().getJSONObject(i).getLong("id"));
+                }
+                Assertions.assertTrue(page.getRecords().length() <= 2);
+                token = page.getToken();
+                pages++;
+            } while (token != null);
+            Assertions.assertEquals(expected, ids);
+            Assertions.assertEquals((expected.size() + 1) / 2, pages);
+        }
+    }
+
+    @Test
+    @Order(34)
+    void dialectTest() throws SQLException {
+        Query books = Query.select("id, title").from("book").orderBy("id");
+        Assertions.assertFalse(books.compile(DataBaseType.POSTGRESQL).contains("limit"));
+        Assertions.assertTrue(books.maxResults(10).compile(DataBaseType.POSTGRESQL).contains("limit 10"));
+        Assertions.assertTrue(books.maxResults(10).offset(20).compile(DataBaseType.MYSQL).contains("offset 20"));
+
+        String oracle = books.maxResults(10).compile(DataBaseType.ORACLE);
+        Assertions.assertTrue(oracle.indexOf("order by") < oracle.indexOf("rownum <= 10"));
+        Assertions.assertTrue(books.maxResults(10).offset(20).compile(DataBaseType.ORACLE).contains("rnum__ > 20"));
+        Assertions.assertTrue(books.maxResults(10).offset(20).compile(DataBaseType.MSSQL)
+                                   .contains("offset 20 rows\r\n    fetch next 10 rows only"));
+        Assertions.assertTrue(books.maxResults(10).compile(DataBaseType.FIREBIRD).contains("select first 10 "));
+        Assertions.assertTrue(books.compile(DataBaseType.PROGRESS).endsWith("with (nolock)\r\n"));
+        Assertions.assertEquals(DataBaseType.H2, DataBaseType.fromUri(db.getUri()));
+
+        JSONArray all = db.select("id").from("book").orderBy("id").query();
+        JSONArray page = db.select("id").from("book").orderBy("id").maxResults(2).offset(1).query();
+        Assertions.assertEquals(Math.min(2, all.length() - 1), page.length());
+        Assertions.assertEquals(all.getJSONObject(1).getLong("id"), page.getJSONObject(0).getLong("id"));
+    }
+
+    @Test
+    @Order(35)
+    void queryOptionsTest() throws SQLException {
+        JSONArray all = db.select("id").from("book").orderBy("id").query();
+        JSONArray two = db.select("id").from("book").orderBy("id").maxRows(2).queryTimeout(5).fetchSize(1).query();
+        Assertions.assertEquals(Math.min(2, all.length()), two.length());
+
+        // Os valores valem so para a proxima query
+        Assertions.assertEquals(all.length(), db.select("id").from("book").query().length());
+
+        db.setDefaultMaxRows(1);
+        try {
+            Assertions.assertEquals(1, db.select("id").from("book").query().length());
+            Assertions.assertEquals(1, db.select("id").from("book").query().length());
+        } finally {
+            db.setDefaultMaxRows(0);
+        }
+        Assertions.assertEquals(0, db.getDefaultMaxRows());
+        Assertions.assertEquals(all.length(), db.select("id").from("book").query().length());
+    }
+
+    @Test
+    @Order(36)
+    void queryListenerTest() throws SQLException {
+        List<QueryEvent> events = new ArrayList<>();
+        QueryListener listener = events::add;
+        SlowQueryLog slow = new SlowQueryLog(Long.MAX_VALUE);
+        db.addQueryListener(listener);
+        FacilDB.addGlobalQueryListener(slow);
+        try {
+            JSONArray books = db.select("id, title").from("book").where("publisher_id=?").param(1001L).query();
+            db.update("book").fields("title").where("id=?").param("none").param(-1L).execute();
+            long count = db.sql("select count(*) from book where title = 'none'").queryCount();
+
+            Assertions.assertEquals(3, events.size());
+            QueryEvent select = events.get(0);
+            Assertions.assertEquals(SQLCommand.SELECT, select.getOperation());
+            Assertions.assertEquals(1, select.getBinds());
+            Assertions.assertEquals(books.length(), select.getRows());
+            Assertions.assertTrue(select.getBytes() > 0);
+            Assertions.assertTrue(select.getTotalNanos() > 0);
+            Assertions.assertTrue(select.isSuccess());
+            Assertions.assertEquals(SQLCommand.UPDATE, events.get(1).getOperation());
+            Assertions.assertEquals(0, events.get(1).getRows());
+            Assertions.assertEquals(0, count);
+            Assertions.assertEquals("select count(*) from book where title = ?", events.get(2).getShape());
+
+            Assertions.assertThrows(SQLException.class, () -> db.sql("select nothing from book").query());
+            Assertions.assertFalse(events.get(3).isSuccess());
+            Assertions.assertTrue(slow.getHistogram().getCount() >= 4);
+            Assertions.assertNotNull(slow.getHistogram(events.get(2).getShape()));
+        } finally {
+            db.removeQueryListener(listener);
+            FacilDB.removeGlobalQueryListener(slow);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v * 1000);
+        }
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1000000, histogram.getMaxNanos());
+        long p50 = histogram.getValueAtPercentile(50);
+        Assertions.assertTrue(p50 >= 500000 && p50 <= 500000 * 17 / 16, String.valueOf(p50));
+        Assertions.assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    @Order(37)
+    void procedureResultsTest() throws SQLException {
+        db.sql("create alias if not exists books_of for \"" + Procedures.class.getName() + ".booksOf\"").execute();
+        db.sql("create alias if not exists failing_proc for \"" + Procedures.class.getName() + ".failingProc\"").execute();
+        JSONArray books = db.select("id").from("book").where("publisher_id=?").param(1001L).query();
+
+        try (ProcedureResults results = db.call("books_of(?)").param(1001L).queryResults()) {
+            Assertions.assertTrue(results.next());
+            Assertions.assertTrue(results.isResultSet());
+            Assertions.assertEquals(0, results.getIndex());
+            Assertions.assertArrayEquals(new String[] {"ID", "TITLE"}, results.getColumns());
+            JSONArray records = results.getRecords();
+            Assertions.assertEquals(books.length(), records.length());
+            Assertions.assertTrue(records.getJSONObject(0).has("TITLE"));
+            Assertions.assertFalse(results.next());
+            Assertions.assertFalse(results.next());
+        }
+
+        JSONArray flat = db.call("books_of(?)").param(1001L).queryProcedure(true);
+        Assertions.assertEquals(books.length(), flat.length());
+
+        // Erros da procedure nao sao mais ignorados
+        Assertions.assertThrows(SQLException.class, () -> db.call("failing_proc()").queryProcedure(true));
+        ProcedureResults failing = db.call("failing_proc()").queryResults();
+        Assertions.assertThrows(SQLException.class, failing::next);
+        Assertions.assertFalse(failing.next());
+    }
+
+    @Test
+    @Order(38)
+    void callableCacheTest() throws SQLException {
+        JSONArray books = db.select("id").from("book").where("publisher_id=?").param(1001L).query();
+        StatementCache cache = db.getStatementCache();
+
+        Assertions.assertEquals(books.length(), db.call("books_of(?)").param(1001L).queryProcedure(true).length());
+        long hits = cache.getHits();
+        Assertions.assertEquals(books.length(), db.call("books_of(?)").param(1001L).queryProcedure(true).length());
+        Assertions.assertEquals(hits + 1, cache.getHits());
+
+        // Uma chamada sem outParam nao herda o parametro de saida do cache
+        db.call("books_of(?)").outParam(0, DataType.LONG, 1001L);
+        db.resetInternalVariables();
+        long misses = cache.getMisses();
+        JSONArray again = db.call("books_of(?)").param(0, 1001L).queryProcedure(true);
+        Assertions.assertEquals(misses + 1, cache.getMisses());
+        Assertions.assertEquals(books.length(), again.length());
+        db.resetInternalVariables();
+
+        List<Integer> registered = new ArrayList<>();
+        Connection conn = db.getConnection();
+        Connection spy = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), 
+            new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                Object result = method.invoke(conn, args);
+                if (!method.getName().equals("prepareCall")) {
+                    return result;
+                }
+                return Proxy.newProxyInstance(getClass().getClassLoader(), 
+                    new Class<?>[] {CallableStatement.class}, (p, m, a) -> {
+                        if (m.getName().equals("registerOutParameter")) {
+                            registered.add((Integer) a[0]);
+                        }
+                        return m.invoke(result, a);
+                    });
+            });
+        StatementCache spyCache = new StatementCache(spy);
+        CallableStatement cs = spyCache.prepareCall("{call abs(?)}");
+        spyCache.registerOutParameter(cs, 1, java.sql.Types.BIGINT);
+        spyCache.registerOutParameter(cs, 1, java.sql.Types.BIGINT);
+        spyCache.release(cs);
+        Assertions.assertEquals(1, registered.size());
+        Assertions.assertTrue(cs.isClosed());
+        Assertions.assertEquals(0, spyCache.size());
+
+        // Sem parametro de saida o statement volta ao cache
+        CallableStatement plain = spyCache.prepareCall("{call abs(?)}");
+        Assertions.assertNotSame(cs, plain);
+        spyCache.release(plain);
+        Assertions.assertSame(plain, spyCache.prepareCall("{call abs(?)}"));
+        spyCache.release(plain);
+        Assertions.assertEquals(1, registered.size());
+        spyCache.close();
+    }
+
+    @Test
+    @Order(39)
+    void typedParamTest() throws SQLException {
+        db.insert("book")
+          .fields("id, title, author, isbn, publisher_id")
+          .paramLong(9100L)
+          .paramString("Typed Params")
+          .paramTyped("Someone", DataType.STRING)
+          .paramString("978-0000000000")
+          .paramLong(1001L)
+          .execute();
+        JSONObject book = db.select("id, title").from("book").where("id=?").paramLong(9100L).queryUnique();
+        Assertions.assertEquals("Typed Params", book.getString("title"));
+
+        long total = db.sql("select count(*) from book").queryCount();
+        Assertions.assertEquals(total, db.sql("select count(*) from book where cast(? as bigint) is null")
+                                         .paramTyped(null, DataType.LONG).queryCount());
+        Assertions.assertEquals(1, db.sql("select count(*) from book where id = ? and ? and ? > 1.5")
+                                     .paramInt(9100).paramBoolean(true).paramDouble(2.5).queryCount());
+
+        Date now = new Date(1600000000123L);
+        String expected = DateUtil.dateToString(now, DateUtil.PATTERN_DATE_HOUR_MILISECONDS);
+        JSONObject ts = db.sql("select cast(? as timestamp) as a, cast(? as timestamp) as b, ? as c")
+                          .sqlAlias("a, b, c")
+                          .param(now)
+                          .paramTimestamp(now.getTime())
+                          .paramTimestamp(now)
+                          .queryUnique();
+        Assertions.assertEquals(expected, ts.getString("a"));
+        Assertions.assertEquals(expected, ts.getString("b"));
+        Assertions.assertEquals(expected, ts.getString("c"));
+
+        // Um int literal com DataType e valor, nao indice
+        Assertions.assertEquals(1, db.sql("select count(*) from book where id = ?")
+                                     .paramTyped(9100, DataType.LONG).queryCount());
+        Assertions.assertEquals(3, db.sql("select cast(? as int) as v").sqlAlias("v")
+                                     .paramTyped(3, DataType.INTEGER).queryUnique().getInt("v"));
+
+        JSONObject dates = db.sql("select ? as a, ? as b, ? as c")
+                             .sqlAlias("a, b, c")
+                             .paramTyped("2020-09-13 09:26:40.123", DataType.TIMESTAMP)
+                             .paramTyped(java.time.LocalDateTime.of(2020, 9, 13, 9, 26, 40, 123000000), DataType.TIMESTAMP)
+                             .paramTyped(java.time.LocalDate.of(2020, 9, 13), DataType.DATE)
+                             .queryUnique();
+        Assertions.assertEquals("2020-09-13 09:26:40.123", dates.getString("a"));
+        Assertions.assertEquals("2020-09-13 09:26:40.123", dates.getString("b"));
+        Assertions.assertTrue(dates.getString("c").startsWith("2020-09-13"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> db.paramTyped(1L, DataType.DATE));
+        db.resetInternalVariables();
+
+        db.delete("book").where("id=?").param(9100L).execute();
+    }
+
+    @Test
+    @Order(40)
+    void keysetTimestampTest() throws SQLException {
+        db.sql("create table ts_page (ts timestamp(6) not null, id bigint not null)").execute();
+        try {
+            String[] times = {"10:00:00.123456", "10:00:00.123456", "10:00:00.123457", 
+                              "10:00:00.123457", "10:00:00.123999"};
+            for (int i = 0; i < times.length; i++) {
+                db.sql("insert into ts_page (ts, id) values (timestamp '2020-05-17 " + times[i] + "', ?)")
+                  .param((long) i + 1).execute();
+            }
+
+            List<Long> ids = new ArrayList<>();
+            String token = null;
+            int pages = 0;
+            do {
+                Page page = db.dateMode(DateMode.TEXT)
+                              .select("ts, id")
+                              .from("ts_page")
+                              .page(Keyset.fromToken("ts, id", token), 2);
+                for (int i = 0; i < page.getRecords().length(); i++) {
+                    ids.add(page.getRecords().getJSONObject(i).getLong("id"));
+                }
+                token = page.getToken();
+                pages++;
+            } while (token != null && pages < 10);
+            Assertions.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), ids);
+            Assertions.assertEquals(3, pages);
+        } finally {
+            db.sql("drop table ts_page").execute();
+        }
+    }
+
+    @Test
+    @Order(41)
+    void pooledQueryOptionsTest() throws SQLException {
+        FacilDataSource ds = new FacilDataSource(db.getUri(), "root", "1234");
+        ds.setMaxSize(1);
+        try {
+            Query books = Query.select("id").from("book").orderBy("id");
+            int total = ds.query(books).length();
+            Assertions.assertTrue(total > 2);
+
+            FacilDB pooled = new FacilDB(ds);
+            try {
+                JSONArray two = pooled.sql(books.compile(ds.getDbType())).maxRows(2).queryTimeout(5).query();
+                Assertions.assertEquals(2, two.length());
+            } finally {
+                pooled.closeConnection();
+            }
+
+            // O statement do cache volta sem o maxRows da FacilDB
+            Assertions.assertEquals(total, ds.query(books).length());
+        } finally {
+            ds.close();
+        }
+    }
+
+    @Test
+    @Order(42)
+    void sharedPoolTest() throws SQLException, InterruptedException {
+        String dbDir = System.getProperty("java.io.tmpdir");
+        FacilDataSource.enablePooling(0, 1, 10, 100);
+        try {
+            Assertions.assertTrue(FacilDataSource.isPoolingEnabled());
+            FacilDB db1 = new FacilH2("localhost", "9092", dbDir, "testdb", "root", "1234");
+            Connection conn = db1.getConnection();
+            Assertions.assertEquals(8, db1.sql("select count(*) from publisher").queryCount());
+
+            // Pool cheio: o borrow espera o borrowTimeout e desiste
+            long start = System.currentTimeMillis();
+            Assertions.assertThrows(SQLException.class, 
+                () -> new FacilH2("localhost", "9092", dbDir, "testdb", "root", "1234"));
+            Assertions.assertTrue(System.currentTimeMillis() - start >= 100);
+            db1.closeConnection();
+
+            FacilDB db2 = new FacilH2("localhost", "9092", dbDir, "testdb", "root", "1234");
+            Assertions.assertSame(conn, db2.getConnection());
+            db2.closeConnection();
+        } finally {
+            FacilDataSource.disablePooling();
+        }
+        Assertions.assertFalse(FacilDataSource.isPoolingEnabled());
+
+        // Sem uso, o pool so encolhe com evictIdle()
+        FacilDataSource ds = new FacilDataSource(db.getUri(), "root", "1234");
+        ds.setMinSize(1);
+        ds.setIdleTimeout(10);
+        Connection c1 = ds.getConnection();
+        Connection c2 = ds.getConnection();
+        ds.release(c1);
+        ds.release(c2);
+        Assertions.assertEquals(2, ds.getIdleCount());
+        Thread.sleep(30);
+        ds.evictIdle();
+        Assertions.assertEquals(1, ds.getIdleCount());
+        Assertions.assertEquals(1, ds.getTotalCount());
+        ds.close();
+    }
+
+    @Test
+    @Order(43)
+    void poolValidationTest() throws SQLException {
+        FacilDataSource ds = new FacilDataSource(db.getUri(), "root", "1234");
+        ds.setMaxSize(1);
+        ds.setBorrowTimeout(100);
+        Connection conn = ds.getConnection();
+        ds.release(conn);
+        conn.close();
+        Connection other = ds.getConnection();
+        Assertions.assertNotSame(conn, other);
+        Assertions.assertEquals(1, ds.getTotalCount());
+        ds.release(other);
+        ds.close();
+
+        // isValid() que lanca excecao (drivers JDBC3) descarta a conexao
+        Driver driver = new NoValidationDriver();
+        DriverManager.registerDriver(driver);
+        try {
+            FacilDataSource legacy = new FacilDataSource(NoValidationDriver.PREFIX + db.getUri(), "root", "1234");
+            legacy.setMaxSize(1);
+            legacy.setBorrowTimeout(100);
+            Connection first = legacy.getConnection();
+            legacy.release(first);
+            Connection second = legacy.getConnection();
+            Assertions.assertNotSame(first, second);
+            Assertions.assertTrue(first.isClosed());
+            Assertions.assertEquals(1, legacy.getTotalCount());
+            legacy.release(second);
+            legacy.close();
+            Assertions.assertEquals(0, legacy.getTotalCount());
+        } finally {
+            DriverManager.deregisterDriver(driver);
+        }
+    }
+
+    @Test
+    @Order(44)
+    void metadataCacheDDLTest() throws SQLException {
+        MetadataCache cache = new MetadataCache(60000);
+        FacilDB.addDDLListener(cache);
+        MetadataDB cachedDb = new MetadataDB(db.getConnection().getMetaData(), cache);
+        try {
+            db.sql("create table \"lib\" (\"id\" bigint not null, \"shelf_id\" bigint)").execute();
+            Table lib = cachedDb.getTable("", "PUBLIC", "lib");
+            Assertions.assertNull(lib.getColumns().get(1).getFkTableName());
+
+            // A tabela criada depois e vista como destino da FK
+            db.sql("create table \"shelf\" (\"id\" bigint not null)").execute();
+            lib = cachedDb.getTable("", "PUBLIC", "lib");
+            Assertions.assertEquals("shelf", lib.getColumns().get(1).getFkTableName());
+
+            // O novo nome de um rename nao fica no cache como ausente
+            Assertions.assertNull(cachedDb.getTable("", "PUBLIC", "rack").getColumns());
+            db.sql("alter table \"shelf\" rename to \"rack\"").execute();
+            Assertions.assertEquals(1, cachedDb.getTable("", "PUBLIC", "rack").getColumns().size());
+        } finally {
+            db.sql("drop table if exists \"lib\"").execute();
+            db.sql("drop table if exists \"shelf\"").execute();
+            db.sql("drop table if exists \"rack\"").execute();
+            FacilDB.removeDDLListener(cache);
+        }
+    }
+
+    @Test
+    @Order(45)
+    void dateCompatibilityTest() throws ParseException {
+        TimeZone zone = TimeZone.getDefault();
+        try {
+            for (String id: new String[] {"America/New_York", "America/Sao_Paulo"}) {
+                TimeZone.setDefault(TimeZone.getTimeZone(id));
+                SimpleDateFormat sdf = new SimpleDateFormat(DateUtil.PATTERN_DATE_HOUR_MILISECONDS);
+                // Fim do horario de verao (hora repetida), inicio (hora pulada) e hora media local
+                String[] texts = {"2020-11-01 01:30:00.000", "2020-03-08 02:30:00.000", 
+                                  "1850-06-01 12:00:00.000", "1900-12-31 23:59:59.999"};
+                for (String text: texts) {
+                    Date date = DateUtil.stringToDate(text);
+                    Assertions.assertEquals(sdf.parse(text).getTime(), date.getTime(), id + " " + text);
+                    Assertions.assertEquals(sdf.format(date), DateUtil.dateToString(date, DateUtil.PATTERN_DATE_HOUR_MILISECONDS));
+                    Assertions.assertEquals(new SimpleDateFormat(DateUtil.PATTERN_DATE_HOUR).format(date), 
+                                            DateUtil.dateToString(date, DateUtil.PATTERN_DATE_HOUR));
+                }
+            }
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+
+        Date date = new Date(1589721630000L);
+        Assertions.assertEquals(new SimpleDateFormat("ddd HHH").format(date), DateUtil.dateToString(date, "ddd HHH"));
+        Assertions.assertEquals(new SimpleDateFormat("MMMM").format(date), DateUtil.dateToString(date, "MMMM"));
+        Assertions.assertTrue(DateUtil.dateToIso8601(date).matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.000(Z|[+-]\\d{2}:\\d{2})"));
+    }
+
+    @Test
+    @Order(46)
+    void copyTextTest() throws SQLException {
+        TimeZone zone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Sao_Paulo"));
+        try {
+            Object[] values = {null, "a\tb\\c\nd", 42L, new java.math.BigDecimal("1E+3"), true, 
+                               new byte[] {0, 15, (byte) 255}, java.sql.Date.valueOf("2020-05-17"),
+                               new Date(1589721630123L), java.sql.Timestamp.valueOf("2020-05-17 10:20:30.123456")};
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append('\t');
+                }
+                Assertions.assertTrue(CopyText.supports(values[i]));
+                CopyText.append(line, values[i]);
+            }
+            Assertions.assertEquals("\\N\ta\\tb\\\\c\\nd\t42\t1000\ttrue\t\\\\x000fff\t2020-05-17\t"
+                                    + "2020-05-17T10:20:30.123-03:00\t2020-05-17T10:20:30.123456-03:00", 
+                                    line.toString());
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+        Assertions.assertFalse(CopyText.supports(new JSONObject()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CopyText.append(new StringBuilder(), new JSONArray()));
+
+        // O schema vai com a citacao do dialeto
+        List<JSONObject> list = new ArrayList<>();
+        list.add(new JSONObject().put("id", 8100L).put("pub_name", "Schema"));
+        try {
+            Assertions.assertEquals(1, db.schema("PUBLIC").bulkLoad("publisher", "id, pub_name", list));
+        } finally {
+            db.schema(null);
+        }
+        Assertions.assertEquals(1, db.sql("select count(*) from publisher where id = 8100").queryCount());
+        db.sql("delete from publisher where id = 8100").execute();
+    }
+
+    @Test
+    @Order(47)
+    void dmlDialectTest() throws SQLException {
+        List<String> sqls = new ArrayList<>();
+        FacilDB mysql = new FacilDB();
+        mysql.setConnection(fakeConnection("jdbc:mysql://localhost/shop", sqls));
+        mysql.schema("shop");
+        mysql.insert("book").fields("id, title").param(1L).param("A").execute();
+        mysql.update("book").fields("title").where("id=?").param("B").param(1L).execute();
+        mysql.delete("book").where("id=?").param(1L).execute();
+        mysql.select("id").from("book").query();
+
+        Assertions.assertEquals(4, sqls.size());
+        for (String sql: sqls) {
+            Assertions.assertTrue(sql.contains("`shop`.book"), sql);
+            Assertions.assertFalse(sql.contains("\"shop\""), sql);
+        }
+    }
+
+    /**
+     * Connection of the URL that records the SQL it prepares and runs
+     * nothing.
+     */
+    private static Connection fakeConnection(String url, List<String> sqls) {
+        return fake(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMetaData":
+                    return fake(java.sql.DatabaseMetaData.class, 
+                                (p, m, a) -> m.getName().equals("getURL") ? url : defaultValue(m.getReturnType()));
+                case "prepareStatement":
+                    sqls.add((String) args[0]);
+                    return fake(java.sql.PreparedStatement.class, (p, m, a) -> {
+                        if (m.getName().equals("executeQuery")) {
+                            return fake(ResultSet.class, (r, rm, ra) -> defaultValue(rm.getReturnType()));
+                        }
+                        return defaultValue(m.getReturnType());
+                    });
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static <T> T fake(Class<T> type, java.lang.reflect.InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FacilDBTest.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        return type == long.class ? (Object) 0L : null;
+    }
+
+    @Test
+    @Order(48)
+    void statementCacheDDLTest() throws SQLException {
+        FacilDB own = new FacilH2("localhost", "9092", System.getProperty("java.io.tmpdir"), "testdb", "root", "1234");
+        StatementCache cache = own.getStatementCache();
+        own.select("id").from("book").query();
+        Assertions.assertEquals(1, cache.size());
+
+        // DDL fecha os statements preparados antes dela
+        own.sql("create table ddl_probe (id bigint)").execute();
+        Assertions.assertEquals(0, cache.size());
+        own.sql("drop table ddl_probe").execute();
+
+        // Trocar a conexao fecha o cache da anterior
+        own.select("id").from("book").query();
+        Assertions.assertEquals(1, cache.size());
+        Connection previous = own.getConnection();
+        own.setConnection(db.getConnection());
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertNotSame(cache, own.getStatementCache());
+        previous.close();
+    }
+
+    @Test
+    @Order(49)
+    void keysetAmbiguousKeyTest() throws SQLException {
+        String from = "book b join publisher p on p.id = b.publisher_id";
+        Page page = db.select("p.id, b.id").from(from).page(Keyset.first("b.id"), 2);
+        JSONArray all = db.select("b.id").from(from).orderBy("b.id").query();
+        Assertions.assertEquals(all.getJSONObject(0).getLong("b.id"), page.getRecords().getJSONObject(0).getLong("b.id"));
+        Page next = db.select("p.id, b.id").from(from).page(Keyset.fromToken("b.id", page.getToken()), 2);
+        Assertions.assertEquals(all.getJSONObject(2).getLong("b.id"), next.getRecords().getJSONObject(0).getLong("b.id"));
+
+        // public.book.id nao esta no select e id pode ser publisher.id ou book.id
+        Assertions.assertThrows(SQLException.class, 
+            () -> db.select("publisher.id, book.id")
+                    .from("book join publisher on publisher.id = book.publisher_id")
+                    .page(Keyset.first("public.book.id"), 2));
+        db.resetInternalVariables();
+        Assertions.assertThrows(SQLException.class, 
+            () -> db.select("p.id, b.id").from(from).page(Keyset.first("x.id"), 2));
+        db.resetInternalVariables();
+    }
+
+    public static class Procedures {
+        public static ResultSet booksOf(Connection conn, Long publisherId) throws SQLException {
+            java.sql.PreparedStatement ps = conn.prepareStatement("select id, title from book where publisher_id = ? order by id");
+            ps.setLong(1, publisherId);
+            return ps.executeQuery();
+        }
+
+        public static ResultSet failingProc(Connection conn) throws SQLException {
+            throw new SQLException("falha da procedure");
+        }
+    }
+
+    /**
+     * Driver whose connections throw AbstractMethodError on isValid(), as
+     * the JDBC3 drivers do.
+     */
+    public static class NoValidationDriver implements Driver {
+        static final String PREFIX = "jdbc:facildbtest:";
+
+        public Connection connect(String url, java.util.Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            Connection real = DriverManager.getConnection(url.substring(PREFIX.length()), info);
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), 
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("isValid")) {
+                        throw new AbstractMethodError("isValid");
+                    }
+                    return method.invoke(real, args);
+                });
+        }
+
+        public boolean acceptsURL(String url) {
+            return url != null && url.startsWith(PREFIX);
+        }
+
+        public java.sql.DriverPropertyInfo[] getPropertyInfo(String url, java.util.Properties info) {
+            return new java.sql.DriverPropertyInfo[0];
+        }
+
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        public java.util.logging.Logger getParentLogger() {
+            return java.util.logging.Logger.getGlobal();
+        }
+    }
+
     @AfterAll
     static void finish() throws SQLException {
         db.closeConnection();
@@ -349,4 +1364,18 @@ class FacilDBTest {
           .param(pubId)
           .execute();
     }
+
+    public static class BookRow {
+        private long id;
+        private String title;
+        private Long publisherId;
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
 }